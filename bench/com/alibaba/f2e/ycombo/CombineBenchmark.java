@@ -0,0 +1,125 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of resolving dependencies and combining files without compression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombineBenchmark {
+	// Number of JS files, which is also the number of CSS files.
+	@Param({ "200", "2000" })
+	public int files;
+	
+	// Number of levels of dependencies.
+	@Param({ "6" })
+	public int depth;
+	
+	// Number of files required by each file.
+	@Param({ "4" })
+	public int fanout;
+	
+	// Root folder of generated tree.
+	private File root;
+	
+	// A JS seed file.
+	private File seed;
+	
+	// SourceFile instance with all files of the seed cached.
+	private SourceFile warm;
+	
+	// Canonical path of a JS file with dependencies.
+	private String path;
+	
+	// Binary data of the file.
+	private ByteBuffer data;
+	
+	// Canonical path of files of the seed in combination order.
+	private ArrayList<String> combo;
+	
+	// Combiner instance with all files of the seed cached.
+	private Combiner combiner;
+	
+	// Output file written by the combiner.
+	private File output;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("ycombo-bench").toFile().getCanonicalFile();
+		seed = new TreeGenerator(files, depth, fanout, 1, 42).write(root).get(0);
+		
+		warm = new SourceFile(root.getPath(), "UTF-8");
+		warm.combo(seed);
+		
+		path = new File(root, "js/l0/m0.js").getCanonicalPath();
+		data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+		
+		combiner = new Combiner(root.getPath(), "UTF-8", "seed");
+		combo = combiner.sourceFile.combo(seed);
+		output = new File(root, "out.js");
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		TreeGenerator.delete(root);
+	}
+	
+	/**
+	 * Resolve dependencies of a seed, reading every file.
+	 */
+	@Benchmark
+	public ArrayList<String> comboCold() throws SourceFileException {
+		return new SourceFile(root.getPath(), "UTF-8").combo(seed);
+	}
+	
+	/**
+	 * Resolve dependencies of a seed, with every file cached.
+	 */
+	@Benchmark
+	public ArrayList<String> comboWarm() throws SourceFileException {
+		return warm.combo(seed);
+	}
+	
+	/**
+	 * Find and remove #require statements of a file.
+	 */
+	@Benchmark
+	public ByteBuffer[] extractDependencies() throws SourceFileException {
+		return warm.extractDependencies(data.duplicate(), path);
+	}
+	
+	/**
+	 * Combine files of a seed in memory in nocompress mode, which concatenates binary data
+	 * as HTTP mode and gzip do.
+	 */
+	@Benchmark
+	public int concat() throws IOException, SourceFileException, CombinerException {
+		return combiner.combine(combo, "js").size();
+	}
+	
+	/**
+	 * Write the output file of a seed in nocompress mode, which gathers binary data into the
+	 * file channel and compares the result with the previous output.
+	 */
+	@Benchmark
+	public boolean write() throws IOException, SourceFileException, CombinerException {
+		return combiner.write(combo, "js", output, null);
+	}
+}
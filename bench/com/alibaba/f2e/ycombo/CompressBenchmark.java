@@ -0,0 +1,94 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of compressing a single file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressBenchmark {
+	// Number of statements in JS file, or rules in CSS file.
+	@Param({ "50", "500" })
+	public int size;
+	
+	// Root folder of compressor, which is empty.
+	private File root;
+	
+	// Text of JS file.
+	private String js;
+	
+	// Text of CSS file.
+	private String css;
+	
+	// Compressor instance with default options.
+	private Compressor compressor;
+	
+	// Compressor instance minifying CSS by CssMinifier.
+	private Compressor streamCompressor;
+	
+	// Output of compressing.
+	private CharArrayWriter out;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("ycombo-bench").toFile();
+		
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder();
+		
+		TreeGenerator.appendJS(sb, random, size);
+		js = sb.toString();
+		
+		sb.setLength(0);
+		TreeGenerator.appendCSS(sb, random, size);
+		css = sb.toString();
+		
+		compressor = new Compressor(root.getPath(), "UTF-8", "seed", -1, true, false, false, false);
+		
+		streamCompressor = new Compressor(root.getPath(), "UTF-8", "seed", -1, true, false, false, false);
+		streamCompressor.setStreamCss(true);
+		out = new CharArrayWriter();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		TreeGenerator.delete(root);
+	}
+	
+	@Benchmark
+	public int compressJS() throws IOException, CombinerException {
+		out.reset();
+		compressor.compressJS(new StringReader(js), out);
+		return out.size();
+	}
+	
+	@Benchmark
+	public int compressCSS() throws IOException {
+		out.reset();
+		compressor.compressCSS(new StringReader(css), out);
+		return out.size();
+	}
+	
+	@Benchmark
+	public int compressCSSStream() throws IOException {
+		out.reset();
+		streamCompressor.compressCSS(new StringReader(css), out);
+		return out.size();
+	}
+}
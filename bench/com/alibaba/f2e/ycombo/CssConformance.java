@@ -0,0 +1,160 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import com.yahoo.platform.yui.compressor.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Conformance check of CssMinifier against CssCompressor of YUI Compressor.
+ *
+ * Each file of the corpus folder is minified by both, and the output of CssMinifier
+ * must be the same as the output of CssCompressor, or as the file with the same name
+ * ending with ".expected.css" where the two differ on purpose. Synthetic files made
+ * by TreeGenerator are checked the same way.
+ *
+ * With line breaks, CssCompressor counts columns on its text with strings and comments
+ * replaced by placeholders, so line breaks may be put after different rules, and the
+ * output is compared with line breaks removed.
+ */
+public class CssConformance {
+	// Suffix of files with the expected output.
+	private static final String EXPECTED_SUFFIX = ".expected.css";
+	
+	// Columns of line breaks to check, -1 for no line breaks.
+	private static final int[] LINEBREAKS = { -1, 0, 80 };
+	
+	// Number of cases checked.
+	private int checked;
+	
+	// Number of cases failed.
+	private int failed;
+	
+	/**
+	 * Check a case with all line break columns.
+	 * @param name Name of the case.
+	 * @param css The source.
+	 * @param expected The expected output without line breaks, or null to use the output of CssCompressor.
+	 */
+	private void check(String name, String css, String expected) throws IOException {
+		for (int linebreakpos : LINEBREAKS) {
+			String actual = minify(css, linebreakpos);
+			String wanted = expected;
+			
+			if (wanted == null) {
+				wanted = compress(css, linebreakpos);
+			}
+			
+			if (linebreakpos >= 0) {
+				actual = actual.replace("\n", "");
+				wanted = wanted.replace("\n", "");
+			}
+			
+			++checked;
+			
+			if (!actual.equals(wanted)) {
+				++failed;
+				System.err.println("[FAIL] " + name + " with line break " + linebreakpos);
+				System.err.println("  expected: " + wanted);
+				System.err.println("  actual:   " + actual);
+			}
+		}
+	}
+	
+	/**
+	 * Minify CSS by CssMinifier.
+	 * @param css The source.
+	 * @param linebreakpos Insert a line break after the specified column number.
+	 * @return The output.
+	 */
+	private static String minify(String css, int linebreakpos) throws IOException {
+		StringWriter out = new StringWriter();
+		new CssMinifier(new StringReader(css)).minify(out, linebreakpos);
+		return out.toString();
+	}
+	
+	/**
+	 * Compress CSS by CssCompressor.
+	 * @param css The source.
+	 * @param linebreakpos Insert a line break after the specified column number.
+	 * @return The output.
+	 */
+	private static String compress(String css, int linebreakpos) throws IOException {
+		StringWriter out = new StringWriter();
+		new CssCompressor(new StringReader(css)).compress(out, linebreakpos);
+		return out.toString();
+	}
+	
+	/**
+	 * Read a file as text.
+	 * @param f The file.
+	 * @return The text.
+	 */
+	private static String read(File f) throws IOException {
+		Reader in = new InputStreamReader(new FileInputStream(f), "UTF-8");
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[4096];
+		int n;
+		
+		try {
+			while ((n = in.read(buf)) != -1) {
+				sb.append(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Check the corpus from command line.
+	 * @param args Corpus folder and number of synthetic files.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: CssConformance <folder> [synthetic=100]");
+			System.exit(1);
+		}
+		
+		int synthetic = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		CssConformance conformance = new CssConformance();
+		
+		File[] files = new File(args[0]).listFiles();
+		if (files == null) {
+			System.err.println("Cannot list " + args[0]);
+			System.exit(1);
+		}
+		Arrays.sort(files);
+		
+		for (File f : files) {
+			String name = f.getName();
+			
+			if (!name.endsWith(".css") || name.endsWith(EXPECTED_SUFFIX)) {
+				continue;
+			}
+			
+			File expected = new File(f.getParentFile(), name.substring(0, name.length() - 4) + EXPECTED_SUFFIX);
+			conformance.check(name, read(f), expected.isFile() ? read(expected).trim() : null);
+		}
+		
+		Random random = new Random(42);
+		for (int i = 0; i < synthetic; ++i) {
+			StringBuilder sb = new StringBuilder();
+			TreeGenerator.appendCSS(sb, random, 1 + random.nextInt(50));
+			conformance.check("synthetic #" + i, sb.toString(), null);
+		}
+		
+		System.out.println(conformance.checked + " cases checked, " + conformance.failed + " failed");
+		
+		if (conformance.failed > 0) {
+			System.exit(1);
+		}
+	}
+}
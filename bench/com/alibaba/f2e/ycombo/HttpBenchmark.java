@@ -0,0 +1,216 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Load benchmark of HTTP mode, in requests per second under concurrent clients.
+ *
+ * WebServer serves a generated tree in nocompress mode, and each client sends requests
+ * in turn over a kept-alive connection until the time is up. Three cases are measured:
+ * hits of combined files cached in memory, misses which combine files again from the
+ * source cache, and 304 responses to requests with a matching ETag.
+ */
+public class HttpBenchmark {
+	// Number of seeds requested, which is also the number of cached combined files.
+	private static final int SEEDS = 20;
+	
+	// Base URL of the server.
+	private String base;
+	
+	// Number of concurrent clients.
+	private int clients;
+	
+	// Time of each case in milliseconds.
+	private long millis;
+	
+	// ETags of seeds, filled by warming up.
+	private String[] etags;
+	
+	// Total size of combined seeds in bytes, filled by warming up.
+	private long bytes;
+	
+	// Counter making request queries unique, so each request misses the cache.
+	private AtomicLong unique;
+	
+	/**
+	 * Create a new HttpBenchmark instance.
+	 * @param base Base URL of the server.
+	 * @param clients Number of concurrent clients.
+	 * @param millis Time of each case in milliseconds.
+	 */
+	public HttpBenchmark(String base, int clients, long millis) {
+		this.base = base;
+		this.clients = clients;
+		this.millis = millis;
+		
+		etags = new String[SEEDS];
+		unique = new AtomicLong();
+	}
+	
+	/**
+	 * Request every seed once, so following requests hit the cache.
+	 */
+	private void warmUp() throws IOException {
+		for (int i = 0; i < SEEDS; ++i) {
+			HttpURLConnection conn = (HttpURLConnection) new URL(url(i)).openConnection();
+			
+			if (drain(conn) != 200) {
+				throw new IOException("Cannot warm up " + url(i));
+			}
+			
+			etags[i] = conn.getHeaderField("ETag");
+			bytes += conn.getContentLengthLong();
+		}
+	}
+	
+	/**
+	 * Run a case with all clients until the time is up.
+	 * @param name Name of the case, "hit", "miss" or "304".
+	 * @param report Whether to print the result.
+	 * @return Requests per second.
+	 */
+	private double run(final String name, boolean report) throws Exception {
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final long deadline = System.currentTimeMillis() + millis;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+		
+		for (int c = 0; c < clients; ++c) {
+			final Random random = new Random(c);
+			
+			futures.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					while (System.currentTimeMillis() < deadline) {
+						int i = random.nextInt(SEEDS);
+						String url = url(i);
+						int expected = 200;
+						
+						if (name.equals("miss")) {
+							url += "?t=" + unique.incrementAndGet();
+						}
+						
+						HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+						
+						if (name.equals("304")) {
+							conn.setRequestProperty("If-None-Match", etags[i]);
+							expected = 304;
+						}
+						
+						if (drain(conn) != expected) {
+							errors.incrementAndGet();
+						}
+						requests.incrementAndGet();
+					}
+					return null;
+				}
+			}));
+		}
+		
+		for (Future<?> f : futures) {
+			f.get();
+		}
+		pool.shutdown();
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double rate = requests.get() / seconds;
+		
+		if (report) {
+			System.out.println(String.format("%-5s %10.0f requests/sec  (%d requests, %d errors, %d clients)",
+				name, rate, requests.get(), errors.get(), clients));
+		}
+		
+		return rate;
+	}
+	
+	/**
+	 * Get the URL of a seed.
+	 * @param i Index of the seed.
+	 * @return The URL.
+	 */
+	private String url(int i) {
+		return base + "pages/p" + i + ".js";
+	}
+	
+	/**
+	 * Read a response fully, so the connection is kept alive for the next request.
+	 * @param conn The connection.
+	 * @return The response status code.
+	 */
+	private static int drain(HttpURLConnection conn) throws IOException {
+		int status = conn.getResponseCode();
+		InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+		
+		if (in != null) {
+			byte[] buffer = new byte[8192];
+			
+			try {
+				while (in.read(buffer) != -1) {
+				}
+			} finally {
+				in.close();
+			}
+		}
+		
+		return status;
+	}
+	
+	/**
+	 * Run the benchmark from command line.
+	 * @param args Number of files, number of clients and seconds of each case.
+	 */
+	public static void main(String[] args) throws Exception {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		
+		File root = Files.createTempDirectory("ycombo-bench").toFile().getCanonicalFile();
+		
+		try {
+			new TreeGenerator(files, 6, 4, SEEDS, 42).write(root);
+			
+			// Find a free port, which is closed before the server listens on it.
+			ServerSocket probe = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			int port = probe.getLocalPort();
+			probe.close();
+			
+			Combiner combiner = new Combiner(root.getPath(), "UTF-8", "seed");
+			new WebServer(combiner, "UTF-8", "seed", 64 * 1024 * 1024).serve("127.0.0.1", port, Runtime.getRuntime().availableProcessors() * 2);
+			
+			HttpBenchmark benchmark = new HttpBenchmark("http://127.0.0.1:" + port + "/", clients, seconds * 1000L);
+			benchmark.warmUp();
+			
+			// A short round of each case warms up the JIT before measuring.
+			long millis = benchmark.millis;
+			benchmark.millis = Math.min(millis, 2000);
+			for (String name : new String[] { "hit", "miss", "304" }) {
+				benchmark.run(name, false);
+			}
+			benchmark.millis = millis;
+			
+			System.out.println("Measuring " + files + " files with " + clients + " clients for " + seconds + "s each, "
+				+ (benchmark.bytes / SEEDS / 1024) + " KB per response on average");
+			for (String name : new String[] { "hit", "miss", "304" }) {
+				benchmark.run(name, true);
+			}
+		} finally {
+			TreeGenerator.delete(root);
+		}
+		
+		// The server has no way to stop but the process ending.
+		System.exit(0);
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Check of shared bundles against output files combined without splitting.
+ *
+ * Seeds of a synthetic tree are combined once without splitting and once with shared
+ * bundles. For each page, the files listed in chunks.json must add up to no more bytes
+ * than its output file without splitting. CSS pages must also load the same rules in
+ * the same order, so the listed files put together must be the output file without
+ * splitting.
+ */
+public class SplitCheck {
+	// Pattern of a quoted string in the chunk manifest.
+	private static final Pattern STRING = Pattern.compile("\"([^\"]*)\"");
+	
+	/**
+	 * Read the chunk manifest.
+	 * @param f The manifest file.
+	 * @return Files each page loads in order, by the path related to the root folder.
+	 */
+	private static LinkedHashMap<String, ArrayList<String>> readChunks(File f) throws IOException {
+		LinkedHashMap<String, ArrayList<String>> chunks = new LinkedHashMap<String, ArrayList<String>>();
+		
+		for (String line : Files.readAllLines(f.toPath(), Charset.forName("UTF-8"))) {
+			Matcher m = STRING.matcher(line);
+			
+			if (m.find()) {
+				ArrayList<String> files = new ArrayList<String>();
+				chunks.put(m.group(1), files);
+				
+				while (m.find()) {
+					files.add(m.group(1));
+				}
+			}
+		}
+		
+		return chunks;
+	}
+	
+	/**
+	 * Run the check from command line.
+	 * @param args Number of files, number of seeds of each type and least number of seeds of shared files.
+	 */
+	public static void main(String[] args) throws Exception {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int minSeeds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		
+		File root = Files.createTempDirectory("ycombo-split").toFile().getCanonicalFile();
+		int checked = 0;
+		int failed = 0;
+		long before = 0;
+		long after = 0;
+		
+		try {
+			ArrayList<File> found = new TreeGenerator(files, 6, 4, seeds, 42).write(root);
+			
+			Combiner combiner = new Combiner(root.getPath(), "UTF-8", "seed");
+			HashMap<String, byte[]> unsplit = new HashMap<String, byte[]>();
+			
+			for (File seed : found) {
+				combiner.process(seed);
+				unsplit.put(combiner.output(seed).getPath(), Files.readAllBytes(combiner.output(seed).toPath()));
+			}
+			
+			for (File seed : new Splitter(combiner, minSeeds).split(found)) {
+				combiner.process(seed);
+			}
+			
+			for (Map.Entry<String, ArrayList<String>> e : readChunks(new File(root, Splitter.CHUNKS_NAME)).entrySet()) {
+				ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+				
+				for (String path : e.getValue()) {
+					loaded.write(Files.readAllBytes(new File(root, path).toPath()));
+				}
+				
+				byte[] expected = unsplit.get(new File(root, e.getKey()).getPath());
+				boolean ok = loaded.size() <= expected.length;
+				
+				if (e.getKey().endsWith(".css")) {
+					ok = ok && Arrays.equals(loaded.toByteArray(), expected);
+				}
+				
+				++checked;
+				before += expected.length;
+				after += loaded.size();
+				
+				if (!ok) {
+					++failed;
+					System.err.println("[FAIL] " + e.getKey() + " loads " + loaded.size() + " bytes from " + e.getValue()
+						+ ", " + expected.length + " bytes without splitting");
+				}
+			}
+		} finally {
+			TreeGenerator.delete(root);
+		}
+		
+		System.out.println(checked + " pages checked, " + failed + " failed, " + before + " bytes loaded without splitting, " + after + " with");
+		
+		if (failed > 0 || checked == 0) {
+			System.exit(1);
+		}
+	}
+}
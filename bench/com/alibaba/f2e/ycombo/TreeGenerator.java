@@ -0,0 +1,242 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class for generating synthetic trees of JS and CSS files with dependencies.
+ *
+ * Source files are spread over levels, and each file requires a few random files
+ * of the next level, half by root related paths and half by file related paths.
+ * Seed files require random files of the first level.
+ */
+public class TreeGenerator {
+	// Number of JS files, which is also the number of CSS files.
+	private int files;
+	
+	// Number of levels of dependencies.
+	private int depth;
+	
+	// Number of files required by each file.
+	private int fanout;
+	
+	// Number of JS seeds, which is also the number of CSS seeds.
+	private int seeds;
+	
+	// Random number generator, seeded for reproducible trees.
+	private Random random;
+	
+	/**
+	 * Create a new TreeGenerator instance.
+	 * @param files Number of JS files, which is also the number of CSS files.
+	 * @param depth Number of levels of dependencies.
+	 * @param fanout Number of files required by each file.
+	 * @param seeds Number of JS seeds, which is also the number of CSS seeds.
+	 * @param seed Seed of random number generator.
+	 */
+	public TreeGenerator(int files, int depth, int fanout, int seeds, long seed) {
+		this.files = files;
+		this.depth = Math.max(1, Math.min(depth, files));
+		this.fanout = fanout;
+		this.seeds = seeds;
+		
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Write the tree into a folder.
+	 * @param root The root folder.
+	 * @return Seed files written.
+	 */
+	public ArrayList<File> write(File root) throws IOException {
+		ArrayList<File> written = new ArrayList<File>();
+		
+		for (String type : new String[] { "js", "css" }) {
+			for (int level = 0; level < depth; ++level) {
+				File folder = new File(root, type + "/l" + level);
+				folder.mkdirs();
+				
+				for (int i = 0; i < count(level); ++i) {
+					StringBuilder sb = new StringBuilder();
+					
+					if (level + 1 < depth) {
+						requires(sb, type, level + 1, "../l" + (level + 1) + "/");
+					}
+					
+					if (type.equals("js")) {
+						appendJS(sb, random, 40 + random.nextInt(80));
+					} else {
+						appendCSS(sb, random, 20 + random.nextInt(40));
+					}
+					
+					write(new File(folder, "m" + i + "." + type), sb.toString());
+				}
+			}
+			
+			File pages = new File(root, "pages");
+			pages.mkdirs();
+			
+			for (int i = 0; i < seeds; ++i) {
+				StringBuilder sb = new StringBuilder();
+				
+				requires(sb, type, 0, "../" + type + "/l0/");
+				
+				File seed = new File(pages, "p" + i + "." + type + ".seed");
+				write(seed, sb.toString());
+				written.add(seed);
+			}
+		}
+		
+		return written;
+	}
+	
+	/**
+	 * Get the number of files at a level.
+	 * @param level The level.
+	 * @return Number of files.
+	 */
+	private int count(int level) {
+		return files / depth + (level < files % depth ? 1 : 0);
+	}
+	
+	/**
+	 * Append #require statements of random files at a level.
+	 * @param sb The file content.
+	 * @param type Type of source file.
+	 * @param level The level of required files.
+	 * @param related Path of the level folder related to the requiring file.
+	 */
+	private void requires(StringBuilder sb, String type, int level, String related) {
+		int n = count(level);
+		HashSet<Integer> picked = new HashSet<Integer>();
+		
+		while (picked.size() < Math.min(fanout, n)) {
+			int i = random.nextInt(n);
+			
+			if (picked.add(i)) {
+				String name = "m" + i + "." + type;
+				
+				if (random.nextBoolean()) {
+					sb.append("/* #require <").append(type).append("/l").append(level).append('/').append(name).append("> */\n");
+				} else {
+					sb.append("// #require \"").append(related).append(name).append("\"\n");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Append random JavaScript code.
+	 * @param sb The file content.
+	 * @param random Random number generator.
+	 * @param statements Number of statements.
+	 */
+	public static void appendJS(StringBuilder sb, Random random, int statements) {
+		String name = "mod" + Integer.toHexString(random.nextInt());
+		
+		sb.append("/**\n * Module ").append(name).append(".\n */\n");
+		sb.append("var ").append(name).append(" = (function (global) {\n");
+		sb.append("\tvar cache = {}, count = 0, index;\n\n");
+		
+		for (int i = 0; i < statements; ++i) {
+			switch (random.nextInt(4)) {
+			case 0:
+				sb.append("\t// Keep the value for later lookups.\n");
+				sb.append("\tcache[\"key").append(i).append("\"] = ").append(random.nextInt(1000)).append(";\n");
+				break;
+			case 1:
+				sb.append("\tfunction helper").append(i).append("(element, options) {\n");
+				sb.append("\t\tvar result = element + (options || 0) * ").append(random.nextInt(100)).append(";\n");
+				sb.append("\t\treturn result > count ? result : count;\n");
+				sb.append("\t}\n");
+				sb.append("\tcache.helper").append(i).append(" = helper").append(i).append(";\n");
+				break;
+			case 2:
+				sb.append("\tfor (index = 0; index < ").append(random.nextInt(50)).append("; ++index) {\n");
+				sb.append("\t\tcount += index % 3 === 0 ? 1 : 0;\n");
+				sb.append("\t}\n");
+				break;
+			default:
+				sb.append("\tif (global.document && count > ").append(random.nextInt(10)).append(") {\n");
+				sb.append("\t\tglobal.document.title = 'message ").append(i).append("';\n");
+				sb.append("\t}\n");
+			}
+		}
+		
+		sb.append("\n\treturn { cache: cache, count: function () { return count; } };\n");
+		sb.append("})(this);\n");
+	}
+	
+	/**
+	 * Append random CSS rules.
+	 * @param sb The file content.
+	 * @param random Random number generator.
+	 * @param rules Number of rules.
+	 */
+	public static void appendCSS(StringBuilder sb, Random random, int rules) {
+		sb.append("/* Styles ").append(Integer.toHexString(random.nextInt())).append(" */\n");
+		
+		for (int i = 0; i < rules; ++i) {
+			sb.append(".block-").append(random.nextInt(1000)).append(" .element-").append(i).append(" {\n");
+			sb.append("    margin: 0px 0px ").append(random.nextInt(20)).append("px 0px;\n");
+			sb.append("    color: #").append(random.nextBoolean() ? "ffffff" : "333333").append(";\n");
+			sb.append("    background: url(\"images/bg").append(random.nextInt(10)).append(".png\") no-repeat;\n");
+			sb.append("}\n\n");
+		}
+	}
+	
+	/**
+	 * Write a file in UTF-8.
+	 * @param f The file.
+	 * @param content The content.
+	 */
+	private static void write(File f, String content) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Delete a generated tree.
+	 * @param f The root folder.
+	 */
+	static void delete(File f) {
+		File[] subs = f.listFiles();
+		
+		if (subs != null) {
+			for (File sub : subs) {
+				delete(sub);
+			}
+		}
+		
+		f.delete();
+	}
+	
+	/**
+	 * Generate a tree from command line.
+	 * @param args Root folder, number of files, depth, fan-out and number of seeds.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TreeGenerator <folder> [files=1000] [depth=6] [fanout=4] [seeds=20]");
+			System.exit(1);
+		}
+		
+		int files = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+		int fanout = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		int seeds = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+		
+		new TreeGenerator(files, depth, fanout, seeds, 42).write(new File(args[0]));
+	}
+}
@@ -11,6 +11,8 @@ import jargs.gnu.CmdLineParser;
 import java.io.*;
 import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Class for arguments parsing.
@@ -21,13 +23,43 @@ public class App {
 	 */
 	private static boolean verbose;
 	
+	/**
+	 * Messages of the seed processed by current thread, which are printed together
+	 * to avoid interleaving with messages of other seeds.
+	 */
+	private static ThreadLocal<StringBuilder> log = new ThreadLocal<StringBuilder>();
+	
+	/**
+	 * Indicate whether serving requests as a server, so exiting only ends current request.
+	 */
+	private static boolean serving;
+	
+	/**
+	 * Combiners kept warm for following requests by their options.
+	 */
+	private static HashMap<String, Combiner> combiners = new HashMap<String, Combiner>();
+	
+	/**
+	 * Print a line to console.
+	 * @param msg The line.
+	 */
+	public static void print(String msg) {
+		StringBuilder sb = log.get();
+		
+		if (sb != null) {
+			sb.append(msg).append(System.getProperty("line.separator"));
+		} else {
+			System.err.println(msg);
+		}
+	}
+	
 	/**
 	 * Print normal information to console.
 	 * @param msg Information message.
 	 */
 	public static void info(String msg) {
 		if (verbose && msg.length() > 0) {
-			System.err.println("\n[INFO] " + msg);
+			App.print("\n[INFO] " + msg);
 		}
 	}
 	
@@ -37,7 +69,7 @@ public class App {
 	 */
 	public static void err(String msg) {
 		if (msg.length() > 0) {
-			System.err.println("\n[ERROR] " + msg);
+			App.print("\n[ERROR] " + msg);
 		}
 	}
 	
@@ -47,7 +79,7 @@ public class App {
 	 */
 	public static void exit(String msg) {
 		App.err(msg);
-		System.exit(1);
+		quit(1);
 	}
 	
 	/**
@@ -55,8 +87,66 @@ public class App {
 	 * @param e Exception object.
 	 */
 	public static void exit(Exception e) {
-		e.printStackTrace();
-		System.exit(1);
+		StringWriter trace = new StringWriter();
+		e.printStackTrace(new PrintWriter(trace));
+		App.replay(trace.toString());
+		quit(1);
+	}
+	
+	/**
+	 * Exit application, or only end current request when serving requests.
+	 * @param status Exit status.
+	 */
+	private static void quit(int status) {
+		if (serving) {
+			throw new Exit(status);
+		}
+		
+		flush();
+		System.exit(status);
+	}
+	
+	/**
+	 * Start buffering messages of current thread.
+	 */
+	public static void capture() {
+		log.set(new StringBuilder());
+	}
+	
+	/**
+	 * Stop buffering messages of current thread.
+	 * @return The buffered messages.
+	 */
+	public static String release() {
+		String messages = log.get().toString();
+		log.remove();
+		return messages;
+	}
+	
+	/**
+	 * Print messages buffered by another thread.
+	 * @param messages The buffered messages.
+	 */
+	public static void replay(String messages) {
+		StringBuilder sb = log.get();
+		
+		if (sb != null) {
+			sb.append(messages);
+		} else {
+			System.err.print(messages);
+		}
+	}
+	
+	/**
+	 * Print buffered messages of current thread to console.
+	 */
+	private static void flush() {
+		StringBuilder sb = log.get();
+		
+		if (sb != null) {
+			log.remove();
+			System.err.print(sb);
+		}
 	}
 	
 	/**
@@ -64,7 +154,34 @@ public class App {
 	 * @param args Command line arguments.
 	 */
 	public static void main(String[] args) {
-		
+		run(args, null);
+	}
+	
+	/**
+	 * Serve a request from the client launcher with warm caches.
+	 * @param args Command line arguments of client.
+	 * @param workdir Working folder of client.
+	 * @return Exit status.
+	 */
+	static int serve(String[] args, File workdir) {
+		try {
+			try {
+				run(args, workdir);
+			} catch (RuntimeException e) {
+				App.exit(e);
+			}
+			return 0;
+		} catch (Exit e) {
+			return e.status;
+		}
+	}
+	
+	/**
+	 * Parse arguments and process all seeds.
+	 * @param args Command line arguments.
+	 * @param workdir Working folder which relative paths are resolved from, or null to use the current one.
+	 */
+	private static void run(String[] args, File workdir) {
         CmdLineParser parser = new CmdLineParser();
         CmdLineParser.Option verboseOpt = parser.addBooleanOption('v', "verbose");
         CmdLineParser.Option nomungeOpt = parser.addBooleanOption("nomunge");
@@ -76,6 +193,24 @@ public class App {
 		CmdLineParser.Option rootOpt = parser.addStringOption("root");
 		CmdLineParser.Option extnameOpt = parser.addStringOption("extname");
 		CmdLineParser.Option nocompressOpt = parser.addBooleanOption("nocompress");
+		CmdLineParser.Option gzipOpt = parser.addBooleanOption("gzip");
+		CmdLineParser.Option sharedOpt = parser.addStringOption("shared");
+		CmdLineParser.Option strictHeaderOpt = parser.addBooleanOption("strict-header");
+		CmdLineParser.Option cacheDirOpt = parser.addStringOption("cache-dir");
+		CmdLineParser.Option cacheSizeOpt = parser.addStringOption("cache-size");
+		CmdLineParser.Option sourceCacheOpt = parser.addStringOption("source-cache");
+		CmdLineParser.Option manifestOpt = parser.addStringOption("manifest");
+		CmdLineParser.Option excludeOpt = parser.addStringOption("exclude");
+		CmdLineParser.Option statsOpt = parser.addStringOption("stats");
+		CmdLineParser.Option threadsOpt = parser.addStringOption("threads");
+		CmdLineParser.Option prefetchOpt = parser.addStringOption("prefetch");
+		CmdLineParser.Option cssEngineOpt = parser.addStringOption("css-engine");
+		CmdLineParser.Option watchOpt = parser.addBooleanOption("watch");
+		CmdLineParser.Option serverOpt = parser.addBooleanOption("server");
+		CmdLineParser.Option portOpt = parser.addStringOption("port");
+		CmdLineParser.Option httpOpt = parser.addStringOption("http");
+		CmdLineParser.Option httpCacheOpt = parser.addStringOption("http-cache");
+		CmdLineParser.Option httpHostOpt = parser.addStringOption("http-host");
 		
 		try {
 			parser.parse(args);
@@ -117,7 +252,10 @@ public class App {
             boolean disableOptimizations = parser.getOptionValue(disableOptimizationsOpt) != null;
             
             // Deal with --root <folder>
-            String root = (String) parser.getOptionValue(rootOpt);
+            String root = resolve((String) parser.getOptionValue(rootOpt), workdir);
+            if (root == null && workdir != null) {
+            	root = SourceFile.detectRoot(workdir);
+            }
             
             // Deal with --extname <extname>
             String extname = (String) parser.getOptionValue(extnameOpt);
@@ -129,6 +267,159 @@ public class App {
             // Deal with --nocompress
             boolean noCompress = parser.getOptionValue(nocompressOpt) != null;
             
+            // Deal with --strict-header
+            boolean strictHeader = parser.getOptionValue(strictHeaderOpt) != null;
+            
+            // Deal with --gzip
+            boolean gzip = parser.getOptionValue(gzipOpt) != null;
+            
+            // Deal with --shared <number>
+            int shared = 0;
+            String sharedStr = (String) parser.getOptionValue(sharedOpt);
+            if (sharedStr != null) {
+                try {
+                    shared = Integer.parseInt(sharedStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                if (shared < 2) {
+                	usage();
+                }
+            }
+            
+            // Deal with --cache-dir <folder>
+            String cacheDir = resolve((String) parser.getOptionValue(cacheDirOpt), workdir);
+            
+            // Deal with --cache-size <MB>
+            long cacheSize = 256;
+            String cacheSizeStr = (String) parser.getOptionValue(cacheSizeOpt);
+            if (cacheSizeStr != null) {
+                try {
+                    cacheSize = Long.parseLong(cacheSizeStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            
+            // Deal with --manifest <file>
+            String manifest = resolve((String) parser.getOptionValue(manifestOpt), workdir);
+            
+            // Deal with --exclude <pattern>
+            ArrayList<String> excludes = new ArrayList<String>();
+            for (Object pattern : parser.getOptionValues(excludeOpt)) {
+            	excludes.add((String) pattern);
+            }
+            
+            // Deal with --stats <file>
+            String statsFile = resolve((String) parser.getOptionValue(statsOpt), workdir);
+            Stats stats = statsFile == null ? null : new Stats(new File(statsFile));
+            
+            // Deal with --source-cache <MB>
+            long sourceCache = 256;
+            String sourceCacheStr = (String) parser.getOptionValue(sourceCacheOpt);
+            if (sourceCacheStr != null) {
+                try {
+                    sourceCache = Long.parseLong(sourceCacheStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            
+            // Deal with --threads <number>
+            int threads = 1;
+            String threadsStr = (String) parser.getOptionValue(threadsOpt);
+            if (threadsStr != null) {
+                try {
+                    threads = Integer.parseInt(threadsStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                if (threads < 1) {
+                	// Use all cores by default.
+                	threads = Runtime.getRuntime().availableProcessors();
+                }
+            }
+            
+            // Deal with --prefetch <number>
+            int prefetch = 0;
+            String prefetchStr = (String) parser.getOptionValue(prefetchOpt);
+            if (prefetchStr != null) {
+                try {
+                    prefetch = Integer.parseInt(prefetchStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                if (prefetch < 0) {
+                	usage();
+                }
+            }
+            
+            // Deal with --css-engine <name>
+            boolean streamCss = false;
+            String cssEngine = (String) parser.getOptionValue(cssEngineOpt);
+            if (cssEngine != null) {
+                if (cssEngine.equals("stream")) {
+                	streamCss = true;
+                } else if (!cssEngine.equals("yui")) {
+                	usage();
+                }
+            }
+            
+            // Deal with --watch
+            boolean watch = parser.getOptionValue(watchOpt) != null;
+            
+            // Deal with --port <port>
+            int port = 7613;
+            String portStr = (String) parser.getOptionValue(portOpt);
+            if (portStr != null) {
+                try {
+                    port = Integer.parseInt(portStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            
+            // A server answers each request and moves on, so it cannot keep watching for one.
+            if (watch && (serving || parser.getOptionValue(serverOpt) != null)) {
+            	App.exit("--watch cannot be used with --server, or through a running server. Set YCOMBO_NO_SERVER to watch in-process.");
+            }
+            
+            // Deal with --server
+            if (parser.getOptionValue(serverOpt) != null && !serving) {
+            	serving = true;
+            	new Server(port).serve();
+            	return;
+            }
+            
+            // Deal with --http <port>
+            int httpPort = 0;
+            String httpStr = (String) parser.getOptionValue(httpOpt);
+            if (httpStr != null) {
+                try {
+                    httpPort = Integer.parseInt(httpStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            
+            // Deal with --http-host <address>
+            String httpHost = (String) parser.getOptionValue(httpHostOpt);
+            if (httpHost == null) {
+            	// Any file under root is served, so only local clients are served by default.
+            	httpHost = "127.0.0.1";
+            }
+            
+            // Deal with --http-cache <MB>
+            long httpCache = 64;
+            String httpCacheStr = (String) parser.getOptionValue(httpCacheOpt);
+            if (httpCacheStr != null) {
+                try {
+                    httpCache = Long.parseLong(httpCacheStr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            
             // Deal with [input file]
             String[] input = parser.getRemainingArgs();
             if (input.length == 0) {
@@ -136,61 +427,222 @@ public class App {
             	input = new String[] { "." };
             }
             
-            // Find all seed files for given input.
-            ArrayList<File> seeds = new ArrayList<File>();
+            // Shared bundles are split from all seeds, so they cannot follow changes of a few.
+            if (shared > 0 && (watch || httpPort > 0)) {
+            	App.exit("--shared cannot be used with --watch or --http.");
+            }
+            
+            // Serve combined files on the fly instead of writing output files.
+            if (httpPort > 0 && !serving) {
+            	serving = true;
+            	new WebServer(createCombiner(root, charset, extname, noCompress, strictHeader, linebreakpos, munge, preserveAllSemiColons,
+            		disableOptimizations, streamCss, cacheDir, cacheSize, sourceCache, threads, prefetch, true), charset, extname, httpCache * 1024 * 1024).serve(httpHost, httpPort,
+            		Runtime.getRuntime().availableProcessors() * 2);
+            	return;
+            }
+            
+            // Find all seed files for given input in the background.
+            SeedFinder finder = new SeedFinder(extname, excludes);
+            finder.setStats(stats);
+            ArrayList<File> inputs = new ArrayList<File>();
             for (String path : input) {
-            	findSeed(new File(path), seeds, ".js." + extname, ".css." + extname);
+            	inputs.add(new File(resolve(path, workdir)));
             }
+            Iterable<File> found = finder.start(inputs);
             
-            // Process all seed files.
-            processSeed(seeds, noCompress ?
-            	new Combiner(root, charset, extname) :
-            	new Compressor(root, charset, extname, linebreakpos, munge, verbose, preserveAllSemiColons, disableOptimizations)
-            );
+            // Reuse the combiner kept warm by previous requests with the same options.
+            String options = Arrays.asList(root, charset, extname, noCompress, strictHeader, linebreakpos, munge, verbose,
+            	preserveAllSemiColons, disableOptimizations, streamCss, cacheDir, cacheSize, sourceCache, threads, prefetch, manifest, gzip, shared).toString();
+            Combiner combiner = combiners.get(options);
+            
+            if (combiner != null) {
+            	combiner.sourceFile.refresh();
+            } else {
+            	combiner = createCombiner(root, charset, extname, noCompress, strictHeader, linebreakpos, munge, preserveAllSemiColons,
+            		disableOptimizations, streamCss, cacheDir, cacheSize, sourceCache, threads, prefetch, watch || serving);
+	            combiner.setGzip(gzip);
+	            
+	            // Records are dropped if made with different options, which change output files.
+	            if (manifest != null) {
+	            	combiner.setManifest(new Manifest(new File(manifest), Arrays.asList(combiner.sourceFile.getRoot(), charset,
+	            		extname, noCompress, strictHeader, gzip, shared, combiner.signature("js"), combiner.signature("css")).toString(), combiner.sourceFile));
+	            }
+	            
+	            if (serving) {
+	            	combiners.put(options, combiner);
+	            }
+            }
+            
+            // Combiners kept warm record each request apart.
+            combiner.setStats(stats);
+            
+            // Files required by many seeds are split into shared bundles once all seeds are found.
+            if (shared > 0) {
+            	found = new Splitter(combiner, shared).split(found);
+            }
+            
+            // Process seed files as soon as they are found.
+            ArrayList<File> seeds = processSeed(found, combiner, threads);
+            App.info(combiner.sourceFile.getCacheStats());
+            
+            // Recombine seeds affected by following changes.
+            if (watch && !serving) {
+            	new Watcher(combiner, finder, extname, threads).watch(seeds, input);
+            }
 		} catch (CmdLineParser.OptionException e) {
 			usage();
 		}
 	}
 	
 	/**
-	 * Find seed files recursively for a given path. 
-	 * @param f The starting path to find seeds.
-	 * @param seeds List to fill with found seeds.
-	 * @param jsExt Extension name of js seed file.
-	 * @param cssExt Extension name of css seed file.
+	 * Create a combiner or compressor instance with options.
+	 * @param root Root path specified from command line.
+	 * @param charset Text encoding of source file.
+	 * @param extname Seed file extension name.
+	 * @param noCompress Combine only, do not compress.
+	 * @param strictHeader Find #require statements in the file header only.
+	 * @param linebreakpos Insert a line break after the specified column number.
+	 * @param munge Minify only, do not obfuscate.
+	 * @param preserveAllSemiColons Preserve all semicolons.
+	 * @param disableOptimizations Disable all micro optimizations.
+	 * @param streamCss Minify CSS by CssMinifier in a single pass instead of CssCompressor.
+	 * @param cacheDir Folder of persistent compression cache, or null.
+	 * @param cacheSize Size cap of persistent compression cache in MB.
+	 * @param sourceCache Size cap of source files kept in memory in MB.
+	 * @param threads Number of files compressed in parallel.
+	 * @param prefetch Number of required files read ahead in parallel, or 0 to read files in turn.
+	 * @param longRunning Whether source files may change while cached.
+	 * @return The combiner or compressor instance.
 	 */
-	private static void findSeed(File f, final List<File> seeds, final String jsExt, final String cssExt) {
-		String name = f.getName().toLowerCase();
-		if (f.isFile()) {
-			if (name.endsWith(jsExt) || name.endsWith(cssExt)) {
-				seeds.add(f);
+	private static Combiner createCombiner(String root, String charset, String extname, boolean noCompress, boolean strictHeader, int linebreakpos,
+			boolean munge, boolean preserveAllSemiColons, boolean disableOptimizations, boolean streamCss, String cacheDir,
+			long cacheSize, long sourceCache, int threads, int prefetch, boolean longRunning) {
+		Combiner combiner = null;
+		
+		if (noCompress) {
+			combiner = new Combiner(root, charset, extname);
+		} else {
+			Compressor compressor = new Compressor(root, charset, extname, linebreakpos, munge, verbose, preserveAllSemiColons, disableOptimizations);
+			compressor.setStreamCss(streamCss);
+			combiner = compressor;
+		}
+		
+		combiner.setThreads(threads);
+		combiner.sourceFile.setStrictHeader(strictHeader);
+		combiner.sourceFile.setMapping(!longRunning);
+		combiner.sourceFile.setCacheSize(sourceCache * 1024 * 1024);
+		combiner.sourceFile.setPrefetch(prefetch);
+		
+		if (cacheDir != null) {
+			combiner.setDiskCache(new DiskCache(cacheDir, cacheSize * 1024 * 1024));
+		}
+		
+		return combiner;
+	}
+	
+	/**
+	 * Resolve a relative path from the working folder.
+	 * @param path The path.
+	 * @param workdir The working folder, or null to use the current one.
+	 * @return The resolved path.
+	 */
+	private static String resolve(String path, File workdir) {
+		if (path == null || workdir == null || new File(path).isAbsolute()) {
+			return path;
+		}
+		
+		return new File(workdir, path).getPath();
+	}
+	
+	/**
+	 * Process each seed file.
+	 * @param seeds Seed files, which may be still being found.
+	 * @param combiner The combiner of compressor instance.
+	 * @param threads Number of seeds processed in parallel.
+	 * @return Seed files processed.
+	 */
+	static ArrayList<File> processSeed(Iterable<File> seeds, final Combiner combiner, int threads) {
+		final AtomicInteger written = new AtomicInteger();
+		final AtomicInteger unchanged = new AtomicInteger();
+		ArrayList<File> processed = new ArrayList<File>();
+		
+		if (threads < 2) {
+			for (File seed : seeds) {
+				processSeed(seed, combiner, written, unchanged);
+				processed.add(seed);
 			}
-		// Skip meta-data folders such as ".svn".
-		} else if (f.isDirectory() && (!name.startsWith(".") || name.equals(".") || name.equals(".."))) {
-			for (File sub : f.listFiles()) {
-				findSeed(sub, seeds, jsExt, cssExt);
+			App.info(written + " output files written, " + unchanged + " unchanged");
+			
+			if (combiner.getManifest() != null) {
+				combiner.getManifest().save();
 			}
+			
+			if (combiner.getStats() != null) {
+				combiner.getStats().save();
+			}
+			return processed;
 		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<String>> logs = new ArrayList<Future<String>>();
+		
+		for (final File seed : seeds) {
+			processed.add(seed);
+			logs.add(pool.submit(new Callable<String>() {
+				public String call() {
+					App.capture();
+					processSeed(seed, combiner, written, unchanged);
+					return App.release();
+				}
+			}));
+		}
+		
+		// Print messages of each seed in the same order as processing seeds one by one.
+		try {
+			for (Future<String> f : logs) {
+				App.replay(f.get());
+			}
+		} catch (InterruptedException e) {
+			App.exit(e);
+		} catch (ExecutionException e) {
+			App.exit(e);
+		} finally {
+			pool.shutdown();
+		}
+		
+		App.info(written + " output files written, " + unchanged + " unchanged");
+		
+		if (combiner.getManifest() != null) {
+			combiner.getManifest().save();
+		}
+		
+		if (combiner.getStats() != null) {
+			combiner.getStats().save();
+		}
+		
+		return processed;
 	}
 	
 	/**
-	 * Process each seed file.
-	 * @param seeds List of seed files.
+	 * Process a seed file.
+	 * @param seed The seed file.
 	 * @param combiner The combiner of compressor instance.
+	 * @param written Counter of output files written.
+	 * @param unchanged Counter of output files unchanged.
 	 */
-	private static void processSeed(ArrayList<File> seeds, Combiner combiner) {
-		for (File seed : seeds) {
-			Exception exception = null;
-        	
-        	App.info("Begin Processing " + seed.getAbsolutePath());
-        	
-        	// Error in one seed doesn't break the whole task.
-        	try {
-        		combiner.process(seed);
-        	} catch (Exception e) {
-				App.err(e.getMessage());
-            	App.err("Failed to process " + seed.getName());
-            }
+	private static void processSeed(File seed, Combiner combiner, AtomicInteger written, AtomicInteger unchanged) {
+		App.info("Begin Processing " + seed.getAbsolutePath());
+		
+		// Error in one seed doesn't break the whole task.
+		try {
+			if (combiner.process(seed)) {
+				written.incrementAndGet();
+			} else {
+				unchanged.incrementAndGet();
+			}
+		} catch (Exception e) {
+			App.err(e.getMessage());
+			App.err("Failed to process " + seed.getName());
 		}
 	}
 	
@@ -205,6 +657,9 @@ public class App {
 			+ "  -h, --help               Displays this information\n"
 			+ "  --charset <charset>      Read the input file using <charset>, default to UTF-8\n"
 			+ "  --line-break <column>    Insert a line break after the specified column number\n"
+			+ "  --threads <number>       Process seeds and files in parallel, 0 to use all cores\n"
+			+ "  --prefetch <number>      Read up to <number> required files ahead in parallel\n"
+			+ "  --source-cache <MB>      Specify the size cap of source files in memory, default to 256\n"
 			+ "  -v, --verbose            Display informational messages and warnings\n\n"
 			
 			+ "JavaScript Options\n"
@@ -212,19 +667,56 @@ public class App {
 			+ "  --preserve-semi          Preserve all semicolons\n"
 			+ "  --disable-optimizations  Disable all micro optimizations\n\n"
 			
+			+ "CSS Options\n"
+			+ "  --css-engine <name>      Minify CSS by \"yui\" or \"stream\", default to \"yui\"\n"
+			+ "                           \"stream\" minifies in a single pass with less memory\n\n"
+			
 			+ "Combo Options\n"
 			+ "  --root <folder>          Specify the root folder of dependent files\n"
 			+ "  --extname <extname>      Specify the extension name of seed file\n"
 			+ "                           It defaults to \"seed\" so seed file has a default\n"
 			+ "                           extension name \".js.seed\" or \".css.seed\"\n"
-			+ "  --nocompress             Combine only, do not compress\n\n"
+			+ "  --nocompress             Combine only, do not compress\n"
+			+ "  --gzip                   Write a gzip file at maximum level beside each output file\n"
+			+ "  --shared <number>        Combine files required by at least <number> seeds into\n"
+			+ "                           shared bundles and list bundles of each page in chunks.json\n"
+			+ "  --strict-header          Find #require statements before the first line of code only\n"
+			+ "  --cache-dir <folder>     Reuse compressed files across runs from <folder>\n"
+			+ "  --cache-size <MB>        Specify the size cap of cache folder, default to 256\n"
+			+ "  --manifest <file>        Skip seeds unchanged since the last run recorded in <file>\n"
+			+ "  --stats <file>           Save timings, sizes and cache hit rates to <file>\n"
+			+ "                           in JSON, or in CSV if <file> ends with \".csv\"\n"
+			+ "  --exclude <pattern>      Skip paths matching glob <pattern> when finding seeds\n"
+			+ "                           It can be given more than once, and patterns listed\n"
+			+ "                           in \".ycomboignore\" files are skipped as well\n"
+			+ "  --watch                  Keep running and recombine seeds affected by changes\n\n"
+			
+			+ "Server Options\n"
+			+ "  --server                 Keep caches warm and serve requests from ycombo launcher\n"
+			+ "  --port <port>            Specify the local port of server, default to 7613\n"
+			+ "  --http <port>            Serve combined files over HTTP at <port>, like Unicorn\n"
+			+ "  --http-host <address>    Listen at <address> in HTTP mode, default to 127.0.0.1\n"
+			+ "                           Use 0.0.0.0 to serve clients on other machines\n"
+			+ "  --http-cache <MB>        Specify the size cap of combined files in memory, default to 64\n\n"
 			
 			+ "If root folder is not specified, it defaults to workdir. If workdir is inside\n"
 			+ "intl-style/xxx/htdocs, htdocs will be used as root folder instead.\n\n"
 			
 			+ "If no input file is specified, it defaults to workdir.";
 		
-		System.err.println(msg);
-		System.exit(1);
+		App.print(msg);
+		quit(1);
+	}
+	
+	/**
+	 * Thrown instead of exiting application when serving requests.
+	 */
+	static class Exit extends Error {
+		// Exit status.
+		int status;
+		
+		public Exit(int status) {
+			this.status = status;
+		}
 	}
 }
@@ -0,0 +1,80 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Class for writing files atomically.
+ *
+ * Content is written to a hidden temporary file beside the target file and moved into
+ * place, so a failed write keeps the previous file, and other processes and watching
+ * tools never see a half-written file. Temporary files end with ".tmp".
+ */
+public class AtomicFile {
+	/**
+	 * Content to write into a file.
+	 */
+	public interface Content {
+		/**
+		 * Write the content.
+		 * @param out Output stream of the temporary file, which is closed by the caller.
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+	
+	/**
+	 * Write a file atomically.
+	 * @param target The target file, whose folder is created if missing.
+	 * @param content Content to write.
+	 */
+	public static void write(File target, Content content) throws IOException {
+		File tmp = temporary(target);
+		
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				content.write(out);
+			} finally {
+				out.close();
+			}
+			
+			replace(tmp, target);
+			tmp = null;
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Get a new hidden temporary file beside a target file.
+	 * @param target The target file, whose folder is created if missing.
+	 * @return The temporary file, which is not created yet.
+	 */
+	public static File temporary(File target) {
+		File folder = target.getAbsoluteFile().getParentFile();
+		folder.mkdirs();
+		
+		return new File(folder, "." + target.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+	}
+	
+	/**
+	 * Move a temporary file into place, replacing the target file atomically if possible.
+	 * @param tmp The temporary file.
+	 * @param target The target file.
+	 */
+	public static void replace(File tmp, File target) throws IOException {
+		try {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -8,7 +8,10 @@ package com.alibaba.f2e.ycombo;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Class for combining source files.
@@ -20,9 +23,6 @@ public class Combiner {
 	// Seed file extension name.
 	protected String extname;
 	
-	// Type of seed file.
-	protected String type;
-	
 	// Line between JS files.
 	protected String SEPARATOR_JS;
 	
@@ -32,8 +32,26 @@ public class Combiner {
 	// SourceFile instance.
 	protected SourceFile sourceFile;
 	
-	// Output buffer.
-	private ByteArrayOutputStream buffer;
+	// Persistent cache of refined fragments across runs.
+	private DiskCache diskCache;
+	
+	// Worker pool to refine files of a seed in parallel.
+	private ExecutorService workers;
+	
+	// Records of seeds combined by previous runs.
+	private Manifest manifest;
+	
+	// Whether binary data of source files can be concatenated as it is in this charset.
+	private boolean concatenable;
+	
+	// Timings and sizes of current run, or null if not recorded.
+	private Stats stats;
+	
+	// Writer of gzip files beside output files, or null if not written.
+	private Gzip gzip;
+	
+	// Canonical path of files left to shared bundles, or null if not split.
+	private Set<String> shared;
 	
 	public Combiner(String root, String charset, String extname) {
 		this.charset = charset;
@@ -43,62 +61,413 @@ public class Combiner {
 		SEPARATOR_CSS = "\r\n\r\n";
 		
 		sourceFile = new SourceFile(root, charset);
+		
+		// Charsets such as UTF-16 put a BOM before each encoded text, so the
+		// decoded text has to be encoded again as a whole.
+		try {
+			concatenable = Arrays.equals(SEPARATOR_JS.getBytes(charset), SEPARATOR_JS.getBytes("US-ASCII"))
+				&& Arrays.equals(SEPARATOR_CSS.getBytes(charset), SEPARATOR_CSS.getBytes("US-ASCII"));
+		} catch (UnsupportedEncodingException e) {
+			App.exit(e);
+		}
+	}
+	
+	/**
+	 * Use a persistent cache for refined fragments.
+	 * @param diskCache The DiskCache instance.
+	 */
+	public void setDiskCache(DiskCache diskCache) {
+		this.diskCache = diskCache;
+	}
+	
+	/**
+	 * Skip seeds unchanged since previous runs.
+	 * @param manifest The Manifest instance.
+	 */
+	public void setManifest(Manifest manifest) {
+		this.manifest = manifest;
+	}
+	
+	/**
+	 * Get records of seeds combined.
+	 * @return The Manifest instance, or null if not used.
+	 */
+	public Manifest getManifest() {
+		return manifest;
+	}
+	
+	/**
+	 * Record timings and sizes of seeds and source files.
+	 * @param stats The Stats instance, or null to stop recording.
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats;
+		sourceFile.setStats(stats);
+	}
+	
+	/**
+	 * Get timings and sizes of current run.
+	 * @return The Stats instance, or null if not recorded.
+	 */
+	public Stats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Write a gzip file beside each output file, which is deflated in parallel
+	 * by the worker pool if large enough. Call it after setting threads.
+	 * @param enabled Whether gzip files are written.
+	 */
+	public void setGzip(boolean enabled) {
+		gzip = enabled ? new Gzip(workers) : null;
+	}
+	
+	/**
+	 * Leave files of shared bundles out of output files.
+	 * @param shared Canonical path of files in shared bundles, or null to combine all files.
+	 */
+	public void setShared(Set<String> shared) {
+		this.shared = shared;
+	}
+	
+	/**
+	 * Refine files of a seed in parallel.
+	 * @param threads Number of files refined in parallel.
+	 */
+	public void setThreads(int threads) {
+		if (threads > 1) {
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
 	}
 	
 	/**
 	 * Process the given seed file.
 	 * @param seed The seed file.
+	 * @return Whether the output file is written, or false if it is unchanged.
 	 */
-	public void process(File seed) throws SourceFileException, CombinerException {
+	public boolean process(File seed) throws SourceFileException, CombinerException {
+		boolean written = false;
+		boolean done = false;
+		File output = output(seed);
+		Stats.SeedRecord record = stats == null ? null : stats.begin(seed);
+		
 		try {
-			combine(seed);
+			// Files left to shared bundles may change without changing files of the seed.
+			List<String> files = shared == null ? null : files(seed);
+			
+			// A seed is combined again to write its gzip file if missing or stale.
+			if (manifest == null || !manifest.isUpToDate(seed, files, output) || gzip != null && !gzip.isUpToDate(output)) {
+				written = combine(seed, record);
+				
+				if (manifest != null) {
+					manifest.record(seed, files == null ? sourceFile.combo(seed) : files, output);
+				}
+				
+				if (record != null) {
+					record.status = written ? "written" : "unchanged";
+				}
+			} else if (record != null) {
+				record.status = "skipped";
+			}
+			done = true;
 		} catch (IOException e) {
 			App.exit(e);
+		} finally {
+			// Seed failed this time is combined again next time.
+			if (manifest != null && !done) {
+				manifest.forget(seed);
+			}
+			
+			if (record != null) {
+				stats.end(record, output);
+			}
 		}
+		
+		return written;
+	}
+	
+	/**
+	 * Get the output file of a seed file.
+	 * @param seed The seed file.
+	 * @return The output file.
+	 */
+	File output(File seed) {
+		// Output file locates in the same folder,
+		// and has the same name with the seed file but a different extension name.
+		return new File(seed.getAbsolutePath().replaceAll("\\." + extname + "$", ""));
+	}
+	
+	/**
+	 * Get the type of a seed file.
+	 * @param seed The seed file.
+	 * @return Type of seed file, or null if unknown.
+	 */
+	String type(File seed) {
+		String name = seed.getName();
+		
+		if (name.endsWith(".js." + extname)) {
+			return "js";
+		} else if (name.endsWith(".css." + extname)) {
+			return "css";
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Get source files of a seed in combination order, leaving out files of shared bundles.
+	 * @param seed The seed file.
+	 * @return Canonical path of source files.
+	 */
+	private ArrayList<String> files(File seed) throws SourceFileException {
+		ArrayList<String> files = sourceFile.combo(seed);
+		
+		if (shared != null) {
+			files.removeAll(shared);
+		}
+		
+		return files;
+	}
+	
+	/**
+	 * Get the signature of refine options for the given seed type.
+	 * Files refined with the same signature share the refined fragment across seeds.
+	 * @param type Type of seed file.
+	 * @return The signature, or null if input data is simply piped to output.
+	 */
+	protected String signature(String type) {
+		// In this class input data is simply piped, so there is nothing worth caching.
+		return null;
 	}
 	
 	/**
 	 * Read data from input, refine it, and write to output.
 	 * @param in Input stream reader.
 	 * @param out Output stream writer.
+	 * @param type Type of seed file.
 	 */
-	protected void refine(Reader in, Writer out) throws IOException, CombinerException {
+	protected void refine(Reader in, Writer out, String type) throws IOException, CombinerException {
 		// In this class input data is simply piped to output. 
-		int c;
-		while ((c = in.read()) != -1) {
-			out.write(c);
+		char[] buffer = new char[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
 		}
 	}
 	
 	/**
 	 * Combine the given seed file.
 	 * @param seed The seed file.
+	 * @param record Record of the seed to fill, or null if not recorded.
+	 * @return Whether the output file is written, or false if it is unchanged.
 	 */
-	private void combine(File seed) throws IOException, SourceFileException, CombinerException {
-		String name = seed.getName();
+	private boolean combine(File seed, Stats.SeedRecord record) throws IOException, SourceFileException, CombinerException {
+		String type = type(seed);
 		
-		if (name.endsWith(".js." + extname)) {
-			type = "js";
-		} else if (name.endsWith(".css." + extname)) {
-			type = "css";
-		} else {
+		if (type == null) {
 			throw new CombinerException("Cannot detect seed file type.");
 		}
 		
-		LinkedHashMap<String, Reader> inputs = prepareInput(seed);
-		Writer out = prepareOutput();
-		Reader in = null;
-		String file = null;
+		ArrayList<String> files = files(seed);
+		
+		if (record != null) {
+			record.combined = files;
+		}
+		
+		return write(files, type, output(seed), record);
+	}
+	
+	/**
+	 * Combine source files into an output file.
+	 * @param files Canonical path of source files in combination order.
+	 * @param type Type of source files.
+	 * @param target The output file.
+	 * @param record Record of the seed to fill, or null if not recorded.
+	 * @return Whether the output file is written, or false if it is unchanged.
+	 */
+	boolean write(List<String> files, String type, File target, Stats.SeedRecord record) throws IOException, SourceFileException, CombinerException {
+		// The temporary file is compared with the output file before moving it into place.
+		File tmp = AtomicFile.temporary(target);
+		
+		// Content of the output file kept in memory for gzip.
+		byte[] data = null;
+		boolean changed = false;
 		
 		try {
-			for (Map.Entry<String, Reader> entry : inputs.entrySet()) {
-				file = entry.getKey();
-				in = entry.getValue();
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				// Only time spent in writing is recorded, while reading and refining is recorded by file.
+				GatheringByteChannel channel = record == null ? out.getChannel() : record.time(out.getChannel());
 				
-				refine(in, out);
+				if (gzip != null) {
+					// Output is kept in memory, so it is not read back from disk for gzip.
+					data = combine(files, type).toByteArray();
+					
+					ByteBuffer buffer = ByteBuffer.wrap(data);
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				} else if (signature(type) == null && concatenable) {
+					concat(files, type, channel);
+				} else {
+					combine(files, type, record == null ? out : Channels.newOutputStream(channel));
+				}
+			} finally {
+				out.close();
+			}
+			
+			long start = System.nanoTime();
+			try {
+				// Keep the output file untouched if nothing changed, so its modification time
+				// does not trigger syncing or watching tools.
+				changed = !same(tmp, target);
 				
-				in.close();
-				in = null;
+				if (changed) {
+					AtomicFile.replace(tmp, target);
+					tmp = null;
+				}
+				
+				// Gzip file of an unchanged output file is written again only if missing or stale.
+				if (gzip != null && (changed || !gzip.isUpToDate(target))) {
+					gzip.write(data, target);
+				}
+			} finally {
+				if (record != null) {
+					record.writeNanos += System.nanoTime() - start;
+				}
+			}
+		} catch (FileNotFoundException e) {
+			App.exit(e);
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+		
+		return changed;
+	}
+	
+	/**
+	 * Check whether two files have the same content.
+	 * @param a The first file.
+	 * @param b The second file.
+	 * @return Whether both files exist and have the same content.
+	 */
+	private static boolean same(File a, File b) throws IOException {
+		if (!b.isFile() || a.length() != b.length()) {
+			return false;
+		}
+		
+		InputStream in1 = new FileInputStream(a);
+		try {
+			InputStream in2 = new FileInputStream(b);
+			try {
+				byte[] buf1 = new byte[8192];
+				byte[] buf2 = new byte[8192];
+				int n;
+				
+				while ((n = in1.read(buf1)) != -1) {
+					// Read the same number of bytes from the second file.
+					for (int off = 0, m; off < n; off += m) {
+						m = in2.read(buf2, off, n - off);
+						if (m == -1) {
+							return false;
+						}
+					}
+					
+					for (int i = 0; i < n; ++i) {
+						if (buf1[i] != buf2[i]) {
+							return false;
+						}
+					}
+				}
+				
+				return in2.read() == -1;
+			} finally {
+				in2.close();
+			}
+		} finally {
+			in1.close();
+		}
+	}
+	
+	/**
+	 * Combine source files in the given order.
+	 * @param files Canonical path of source files in combination order.
+	 * @param type Type of source files.
+	 * @return The output buffer.
+	 */
+	public ByteArrayOutputStream combine(List<String> files, String type) throws IOException, SourceFileException, CombinerException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		
+		if (signature(type) == null && concatenable) {
+			concat(files, type, Channels.newChannel(buffer));
+		} else {
+			combine(files, type, buffer);
+		}
+		
+		return buffer;
+	}
+	
+	/**
+	 * Write binary data of source files and separators in the given order,
+	 * which is the combined output when input data is simply piped.
+	 * Each file is read only when its turn comes.
+	 * @param files Canonical path of source files in combination order.
+	 * @param type Type of source files.
+	 * @param channel The output channel.
+	 */
+	private void concat(List<String> files, String type, WritableByteChannel channel) throws IOException, SourceFileException {
+		byte[] separator = (type.equals("js") ? SEPARATOR_JS : SEPARATOR_CSS).getBytes(charset);
+		
+		for (String path : files) {
+			ByteBuffer[] slices = sourceFile.readBinary(path);
+			ByteBuffer[] buffers = Arrays.copyOf(slices, slices.length + 1);
+			buffers[slices.length] = ByteBuffer.wrap(separator);
+			
+			if (channel instanceof GatheringByteChannel) {
+				// A gathering write may stop early, so continue until the last buffer is written.
+				while (buffers[slices.length].hasRemaining()) {
+					((GatheringByteChannel) channel).write(buffers);
+				}
+			} else {
+				for (ByteBuffer b : buffers) {
+					while (b.hasRemaining()) {
+						channel.write(b);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Refine source files in the given order and write them to output.
+	 * Each file is read only when its turn comes.
+	 * @param files Canonical path of source files in combination order.
+	 * @param type Type of source files.
+	 * @param output The output stream.
+	 */
+	private void combine(List<String> files, String type, OutputStream output) throws IOException, SourceFileException, CombinerException {
+		HashMap<String, Future<Fragment>> fragments = prepareFragments(files, type);
+		Writer out = prepareOutput(output);
+		String file = null;
+		
+		try {
+			for (String path : files) {
+				file = path;
+				
+				Future<Fragment> fragment = fragments.get(file);
+				if (fragment != null) {
+					out.write(await(fragment));
+				} else {
+					refine(file, out, type);
+				}
 				
 				// Insert empty lines betweens files to avoid the single-line comment
 	    		// at the last line of the prev file mixing with the code
@@ -114,54 +483,216 @@ public class Combiner {
 			}
 			
 			out.flush();
+		} catch (CombinerException e) {
+			App.print("in " + file);
+			throw e;
+		} finally {
+			// Files after the failed one are no longer needed.
+			for (Future<Fragment> fragment : fragments.values()) {
+				fragment.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Start refining files of a seed on the worker pool.
+	 * @param files Canonical path of source files in combination order.
+	 * @param type Type of seed file.
+	 * @return The pending fragments by canonical path, empty if files are refined one by one.
+	 */
+	private HashMap<String, Future<Fragment>> prepareFragments(List<String> files, final String type) {
+		HashMap<String, Future<Fragment>> fragments = new HashMap<String, Future<Fragment>>();
+		String signature = signature(type);
+		
+		if (workers == null || signature == null) {
+			return fragments;
+		}
+		
+		for (final String path : files) {
+			// Fragment refined by previous seeds is simply reused.
+			if (sourceFile.readFragment(path, signature) != null) {
+				continue;
+			}
 			
-			// Write output buffer to output file.
-			writeFile(seed);
+			fragments.put(path, workers.submit(new Callable<Fragment>() {
+				public Fragment call() {
+					Fragment fragment = new Fragment();
+					
+					App.capture();
+					try {
+						StringWriter w = new StringWriter();
+						refine(path, w, type);
+						fragment.text = w.toString();
+					} catch (Exception e) {
+						fragment.error = e;
+					} finally {
+						fragment.log = App.release();
+					}
+					
+					return fragment;
+				}
+			}));
+		}
+		
+		return fragments;
+	}
+	
+	/**
+	 * Wait for a fragment refined by the worker pool.
+	 * @param future The pending fragment.
+	 * @return The refined fragment.
+	 */
+	private String await(Future<Fragment> future) throws IOException, SourceFileException, CombinerException {
+		Fragment fragment = null;
+		
+		try {
+			fragment = future.get();
+		} catch (InterruptedException e) {
+			App.exit(e);
+		} catch (ExecutionException e) {
+			App.exit(e);
+		}
+		
+		// Messages are printed in the combination order as refining files one by one.
+		App.replay(fragment.log);
+		
+		if (fragment.error instanceof IOException) {
+			throw (IOException) fragment.error;
+		} else if (fragment.error instanceof SourceFileException) {
+			throw (SourceFileException) fragment.error;
+		} else if (fragment.error instanceof CombinerException) {
+			throw (CombinerException) fragment.error;
+		} else if (fragment.error != null) {
+			throw new RuntimeException(fragment.error);
+		}
+		
+		return fragment.text;
+	}
+	
+	/**
+	 * Refine a source file, or reuse the fragment refined by previous seeds.
+	 * @param path The canonical path of source file.
+	 * @param out Output stream writer.
+	 * @param type Type of seed file.
+	 */
+	private void refine(String path, Writer out, String type) throws IOException, SourceFileException, CombinerException {
+		String signature = signature(type);
+		
+		if (signature == null) {
+			Reader in = prepareInput(path);
+			try {
+				refine(in, out, type);
+			} finally {
+				in.close();
+			}
+			return;
+		}
+		
+		String fragment = sourceFile.readFragment(path, signature);
+		
+		if (fragment == null) {
+			// Seeds processed in parallel wait for the one refining the same file.
+			synchronized (sourceFile.lockFragment(path, signature)) {
+				fragment = sourceFile.readFragment(path, signature);
+				
+				if (fragment == null) {
+					fragment = refine(path, type, signature);
+					sourceFile.cacheFragment(path, signature, fragment);
+				} else if (stats != null) {
+					stats.reuse();
+				}
+			}
+		} else if (stats != null) {
+			stats.reuse();
+		}
+		
+		out.write(fragment);
+	}
+	
+	/**
+	 * Refine a source file, or reuse the fragment refined by previous runs.
+	 * @param path The canonical path of source file.
+	 * @param type Type of seed file.
+	 * @param signature Signature of refine options.
+	 * @return The refined fragment.
+	 */
+	private String refine(String path, String type, String signature) throws IOException, SourceFileException, CombinerException {
+		String key = null;
+		String fragment = null;
+		
+		// Time spent in reading is recorded by the source file apart from refining.
+		ByteBuffer[] data = sourceFile.readBinary(path);
+		long start = System.nanoTime();
+		
+		// Fragment refined by previous runs is addressed by file content.
+		if (diskCache != null) {
+			key = diskCache.key(signature, charset, data);
+			fragment = diskCache.get(key);
 			
-			out.close();
-			out = null;
-		} catch (CombinerException e) {
-			if (in != null) {
+			if (stats != null) {
+				stats.disk(fragment != null);
+			}
+		}
+		boolean fromDisk = fragment != null;
+		
+		if (fragment == null) {
+			StringWriter w = new StringWriter();
+			Reader in = prepareInput(data);
+			try {
+				refine(in, w, type);
+			} finally {
 				in.close();
 			}
-			if (out != null) {
-				out.close();
+			fragment = w.toString();
+			
+			if (key != null) {
+				diskCache.put(key, fragment);
 			}
-			System.err.println("in " + file);
-			throw e;
 		}
+		
+		if (stats != null) {
+			stats.refine(path, System.nanoTime() - start, fragment.length(), fromDisk);
+		}
+		
+		return fragment;
 	}
 	
 	/**
-	 * Concat seed file and all dependencies into a binary array then return the ByteArrayInputStream Reader.
-	 * @param seed The seed file.
-	 * @return The ByteArrayInputStream Readers of each input files.
+	 * Wrap binary data of a source file with a Reader.
+	 * @param path Canonical path of source file.
+	 * @return The Reader of source file.
 	 */
-	private LinkedHashMap<String, Reader> prepareInput(File seed) throws SourceFileException {
-		ArrayList<String> output = sourceFile.combo(seed);
-		LinkedHashMap<String, Reader> readers = new LinkedHashMap<String, Reader>();
+	private Reader prepareInput(String path) throws SourceFileException {
+		return prepareInput(sourceFile.readBinary(path));
+	}
+	
+	/**
+	 * Wrap binary data of a source file with a Reader.
+	 * @param data Slices of source file data.
+	 * @return The Reader of source file.
+	 */
+	private Reader prepareInput(ByteBuffer[] data) {
+		Reader r = null;
 		
 		try {
-			for (String path : output) {
-				readers.put(path, new InputStreamReader(new ByteArrayInputStream(sourceFile.readBinary(path)), charset));
-			}
+			r = new InputStreamReader(new SliceInputStream(data), charset);
 		} catch (UnsupportedEncodingException e) {
 			App.exit(e);
 		}
 		
-		return readers;
+		return r;
 	}
 	
 	/**
-	 * Create an output buffer and return the Writer.
-	 * @return The FileOutputStream Writer.
+	 * Create the Writer of an output stream.
+	 * @param output The output stream.
+	 * @return The Writer.
 	 */
-	private Writer prepareOutput() {
+	private Writer prepareOutput(OutputStream output) {
 		Writer w = null;
 		
 		try {
-			buffer = new ByteArrayOutputStream();
-			w = new OutputStreamWriter(buffer, charset);
+			w = new OutputStreamWriter(output, charset);
 		} catch (UnsupportedEncodingException e) {
 			App.exit(e);
 		}
@@ -170,20 +701,58 @@ public class Combiner {
 	}
 	
 	/**
-	 * Map buffer to file.
-	 * @param seed The seed file.
-	 * @param out The output buffer.
+	 * Fragment refined by the worker pool.
 	 */
-	private void writeFile(File seed) throws IOException {
-		try {
-			// Output file locates in the same folder,
-			// and has the same name with the seed file but a different extension name.
-			FileOutputStream file = new FileOutputStream(seed.getAbsolutePath().replaceAll("\\." + extname + "$", ""));
-			buffer.writeTo(file);
-			file.flush();
-			file.close();
-		} catch (FileNotFoundException e) {
-			App.exit(e);
+	private static class Fragment {
+		// The refined fragment.
+		String text;
+		
+		// Messages printed while refining.
+		String log;
+		
+		// Error occurred while refining.
+		Exception error;
+	}
+	
+	/**
+	 * InputStream reading slices of binary data in order.
+	 */
+	private static class SliceInputStream extends InputStream {
+		// Slices of binary data.
+		private ByteBuffer[] slices;
+		
+		// Index of the slice being read.
+		private int index;
+		
+		public SliceInputStream(ByteBuffer[] slices) {
+			this.slices = slices;
+		}
+		
+		public int read() {
+			while (index < slices.length && !slices[index].hasRemaining()) {
+				++index;
+			}
+			
+			return index < slices.length ? slices[index].get() & 0xFF : -1;
+		}
+		
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			
+			while (index < slices.length && !slices[index].hasRemaining()) {
+				++index;
+			}
+			
+			if (index == slices.length) {
+				return -1;
+			}
+			
+			len = Math.min(len, slices[index].remaining());
+			slices[index].get(b, off, len);
+			
+			return len;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -26,6 +26,9 @@ import java.util.*;
  * Class for wrapping YUI Compressor.
  */
 public class Compressor extends Combiner {
+	// Version of the bundled YUI Compressor, keep it the same with ant.properties.
+	private static final String YUI_VERSION = "2.4.7";
+	
 	// Insert a line break after the specified column number.
 	private int linebreakpos;
 	
@@ -41,6 +44,9 @@ public class Compressor extends Combiner {
 	// Disable all micro optimizations.
 	private boolean disableOptimizations;
 	
+	// Minify CSS by CssMinifier in a single pass instead of CssCompressor.
+	private boolean streamCss;
+	
 	/**
 	 * Create a new Compressor instance with options.
 	 * @param root Root path specified from command line.
@@ -61,13 +67,33 @@ public class Compressor extends Combiner {
 		this.disableOptimizations = disableOptimizations;
 	}
 	
+	/**
+	 * Set whether to minify CSS by CssMinifier in a single pass instead of CssCompressor.
+	 * @param streamCss Whether to use CssMinifier.
+	 */
+	public void setStreamCss(boolean streamCss) {
+		this.streamCss = streamCss;
+	}
+	
+	/**
+	 * Get the signature of compressor options for the given seed type.
+	 * @overrides
+	 * @param type Type of seed file.
+	 * @return The signature.
+	 */
+	protected String signature(String type) {
+		return YUI_VERSION + ":" + type + ":" + linebreakpos + ":" + munge + ":" + preserveAllSemiColons + ":" + disableOptimizations
+			+ (streamCss && type.equals("css") ? ":stream" : "");
+	}
+	
 	/**
 	 * Compress code from input by YUI Compressor and write to output.
 	 * @overrides
 	 * @param in Input stream reader.
 	 * @param out Output stream writer.
+	 * @param type Type of seed file.
 	 */
-	protected void refine(Reader in, Writer out) throws IOException, CombinerException {
+	protected void refine(Reader in, Writer out, String type) throws IOException, CombinerException {
 		if (type.equals("js")) {
 			compressJS(in, out);
 		} else if (type.equals("css")) {
@@ -80,32 +106,32 @@ public class Compressor extends Combiner {
 	 * @param in Input reader.
 	 * @param out Output writer.
 	 */
-	private void compressJS(Reader in, Writer out) throws IOException, CombinerException {
+	void compressJS(Reader in, Writer out) throws IOException, CombinerException {
 		try {
 			new JavaScriptCompressor(in, new ErrorReporter() {
 			    public void warning(String message, String sourceName,
 			            int line, String lineSource, int lineOffset) {
 			        if (line < 0) {
-			            System.err.println("\n[WARNING] " + message);
+			            App.print("\n[WARNING] " + message);
 			        } else {
-			            System.err.println("\n[WARNING] " + line + ':' + lineOffset + ':' + message);
+			            App.print("\n[WARNING] " + line + ':' + lineOffset + ':' + message);
 			        }
 			        
 			        if (lineSource != null) {
-			        	System.err.println(lineSource);
+			        	App.print(lineSource);
 			        }
 			    }
 
 			    public void error(String message, String sourceName,
 			            int line, String lineSource, int lineOffset) {
 			        if (line < 0) {
-			            System.err.println("\n[ERROR] " + message);
+			            App.print("\n[ERROR] " + message);
 			        } else {
-			            System.err.println("\n[ERROR] " + line + ':' + lineOffset + ':' + message);
+			            App.print("\n[ERROR] " + line + ':' + lineOffset + ':' + message);
 			        }
 
 			        if (lineSource != null) {
-			        	System.err.println(lineSource);
+			        	App.print(lineSource);
 			        }
 			    }
 
@@ -125,7 +151,11 @@ public class Compressor extends Combiner {
 	 * @param in Input reader.
 	 * @param out Output writer.
 	 */
-	private void compressCSS(Reader in, Writer out) throws IOException {
-		new CssCompressor(in).compress(out, linebreakpos);
+	void compressCSS(Reader in, Writer out) throws IOException {
+		if (streamCss) {
+			new CssMinifier(in).minify(out, linebreakpos);
+		} else {
+			new CssCompressor(in).compress(out, linebreakpos);
+		}
 	}
 }
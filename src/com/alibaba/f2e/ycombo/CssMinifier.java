@@ -0,0 +1,1004 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class for minifying CSS in a single pass, as an alternative to CssCompressor of YUI Compressor.
+ *
+ * CssCompressor reads the whole file and runs dozens of regular expressions over it.
+ * This class tokenizes the source from a reader once and writes the output as it goes,
+ * applying the same rules when the characters they look at are met. Only the output
+ * since the last "}", "{", ";" or "/" is kept in memory, which is as far back as any
+ * rule looks, and where an empty rule is dropped as a whole.
+ */
+public class CssMinifier {
+	// Characters which spaces before are removed.
+	private static final String NO_SPACE_BEFORE = "!{};:>+()],";
+	
+	// Characters which spaces after are removed.
+	private static final String NO_SPACE_AFTER = "!{}:;>+([,";
+	
+	// Units removed from zero values.
+	private static final String[] ZERO_UNITS = { "px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex" };
+	
+	// Properties with value 0 written as "0 0".
+	private static final String[] ORIGIN_PROPERTIES = { "background-position", "transform-origin", "webkit-transform-origin",
+		"moz-transform-origin", "o-transform-origin", "ms-transform-origin" };
+	
+	// Properties with value none written as 0.
+	private static final String[] NONE_PROPERTIES = { "border", "border-top", "border-right", "border-bottom", "outline", "background" };
+	
+	// At-rules with blocks of rules instead of declarations, ignoring vendor prefixes.
+	private static final String[] GROUP_RULES = { "media", "supports", "document", "keyframes" };
+	
+	// Long form of IE opacity filter, where "." matches any character.
+	private static final String ALPHA_FILTER = "progid:DXImageTransform.Microsoft.Alpha(Opacity=";
+	
+	// Short form of IE opacity filter.
+	private static final String ALPHA_SHORT = "alpha(opacity=";
+	
+	// Source reader.
+	private Reader in;
+	
+	// Source characters read ahead.
+	private char[] input;
+	private int inputPos;
+	private int inputEnd;
+	
+	// Last three source characters outside comments, the last one first.
+	private char raw1;
+	private char raw2;
+	private char raw3;
+	
+	// Output writer.
+	private Writer out;
+	
+	// Insert a line break after the specified column number.
+	private int linebreakpos;
+	
+	// Output not written yet, which rules may still rewrite.
+	private char[] text;
+	private int length;
+	
+	// Length of output ending with the last string, comment or data URL, which rules do not look into.
+	private int opaque;
+	
+	// Last character written.
+	private char lastWritten;
+	
+	// Whether any output is written.
+	private boolean written;
+	
+	// Number of characters written on the current line.
+	private int column;
+	
+	// Whether a line break is written before the next output.
+	private boolean newline;
+	
+	// Whether white spaces are met and not written yet.
+	private boolean space;
+	
+	// Whether white spaces after a kept comment are removed.
+	private boolean dropSpace;
+	
+	// Whether a semicolon is met and not written yet, which is removed before "}".
+	private boolean semicolon;
+	
+	// Whether the output ends with "{", which is removed with its selector if the rule is empty.
+	private boolean open;
+	
+	// Whether the comment after a comment ending with "\" is kept empty, for the IE Mac hack.
+	private boolean emptyNext;
+	
+	// Whether a @charset rule is written.
+	private boolean charset;
+	
+	// Whether the output is between the start or "}" and the following "{", where spaces before
+	// pseudo-class colons are kept, and whether the first character there failed it.
+	private boolean region;
+	private boolean regionStart;
+	private boolean regionFailed;
+	
+	// Whether the next character starts a statement, and whether the statement is an at-rule.
+	private boolean statementStart;
+	private boolean atRule;
+	private boolean naming;
+	private StringBuilder atName;
+	
+	// Whether each open block holds rules instead of declarations.
+	private boolean[] blocks;
+	private int depth;
+	
+	/**
+	 * Create a new CssMinifier instance.
+	 * @param in Source reader.
+	 */
+	public CssMinifier(Reader in) {
+		this.in = in;
+		input = new char[8192];
+		text = new char[256];
+		region = true;
+		regionStart = true;
+		statementStart = true;
+		atName = new StringBuilder();
+		blocks = new boolean[16];
+	}
+	
+	/**
+	 * Minify the source and write to output.
+	 * @param out Output writer.
+	 * @param linebreakpos Insert a line break after the specified column number, or -1 to keep one line.
+	 */
+	public void minify(Writer out, int linebreakpos) throws IOException {
+		this.out = out;
+		this.linebreakpos = linebreakpos;
+		
+		int c;
+		while ((c = read()) >= 0) {
+			if (isSpace(c)) {
+				space();
+				raw((char) c);
+			} else if (c == '/' && peek(0) == '*') {
+				read();
+				comment();
+			} else if (c == '"' || c == '\'') {
+				string((char) c);
+			} else if (c == '(' && raw3 == 'u' && raw2 == 'r' && raw1 == 'l' && isDataUrl()) {
+				dataUrl();
+			} else {
+				put((char) c);
+				raw((char) c);
+			}
+		}
+		
+		space = false;
+		if (semicolon) {
+			append(';');
+		}
+		flush();
+	}
+	
+	/**
+	 * Read a comment after "/*". Comments starting with "!" are kept, and so are the IE
+	 * Mac hack and empty comments after ">" for IE7, others are removed.
+	 */
+	private void comment() throws IOException {
+		boolean keep = !emptyNext && peek(0) == '!';
+		boolean closed = false;
+		int count = 0;
+		int last = -1;
+		int c;
+		
+		if (keep) {
+			begin('/', true);
+			append('/');
+			append('*');
+		}
+		
+		while ((c = read()) >= 0) {
+			if (c == '*' && peek(0) == '/') {
+				read();
+				closed = true;
+				break;
+			}
+			
+			if (keep) {
+				append((char) c);
+			}
+			
+			last = c;
+			++count;
+		}
+		
+		if (keep) {
+			if (closed) {
+				append('*');
+				append('/');
+			}
+			endComment();
+		} else if (!closed) {
+			// An unclosed comment runs to the end.
+		} else if (emptyNext) {
+			emptyNext = false;
+			keptComment("/**/");
+		} else if (last == '\\') {
+			emptyNext = true;
+			keptComment("/*\\*/");
+		} else if (count == 0 && raw1 == '>') {
+			keptComment("/**/");
+		}
+	}
+	
+	/**
+	 * Write a comment kept in short form.
+	 * @param comment The comment.
+	 */
+	private void keptComment(String comment) throws IOException {
+		begin('/', true);
+		append(comment);
+		endComment();
+	}
+	
+	/**
+	 * Finish a kept comment, which is not looked into and removes spaces after it.
+	 */
+	private void endComment() throws IOException {
+		opaque = length;
+		flush();
+		dropSpace = true;
+		raw('/');
+	}
+	
+	/**
+	 * Read a quoted string, which is kept as it is except shortening IE opacity filters.
+	 * @param quote The quote character.
+	 */
+	private void string(char quote) throws IOException {
+		begin(quote, false);
+		
+		int start = length;
+		append(quote);
+		
+		int c;
+		while ((c = read()) >= 0) {
+			append((char) c);
+			
+			if (c == '\\') {
+				if ((c = read()) < 0) {
+					break;
+				}
+				append((char) c);
+			} else if (c == quote) {
+				break;
+			}
+		}
+		
+		for (int i = start; i + ALPHA_FILTER.length() <= length; ++i) {
+			if (isAlphaFilter(i)) {
+				replace(i, i + ALPHA_FILTER.length(), ALPHA_SHORT);
+			}
+		}
+		
+		opaque = length;
+		raw(quote);
+	}
+	
+	/**
+	 * Check whether "url(" is followed by a data URL.
+	 * @return Whether it is a data URL.
+	 */
+	private boolean isDataUrl() throws IOException {
+		int i = 0;
+		int c;
+		
+		// White spaces are looked ahead only as far as the read buffer holds.
+		while (isSpace(c = peek(i))) {
+			if (++i > 64) {
+				return false;
+			}
+		}
+		
+		if (c == '"' || c == '\'') {
+			++i;
+		}
+		
+		return peek(i) == 'd' && peek(i + 1) == 'a' && peek(i + 2) == 't' && peek(i + 3) == 'a' && peek(i + 4) == ':';
+	}
+	
+	/**
+	 * Read a data URL after "url(", which is kept with white spaces removed.
+	 */
+	private void dataUrl() throws IOException {
+		begin('(', false);
+		append('(');
+		
+		char terminator = ')';
+		int c;
+		
+		// Read up to "data:", after which the terminator is searched.
+		while (isSpace(c = read())) {
+		}
+		if (c == '"' || c == '\'') {
+			terminator = (char) c;
+			append((char) c);
+			c = read();
+		}
+		append((char) c);
+		for (int i = 0; i < 4; ++i) {
+			append((char) read());
+		}
+		
+		boolean found = false;
+		int prev = ':';
+		while ((c = read()) >= 0) {
+			if (!found && c == terminator && prev != '\\') {
+				found = true;
+			}
+			
+			if (found && c == ')') {
+				break;
+			}
+			
+			if (!isSpace(c)) {
+				append((char) c);
+			}
+			prev = c;
+		}
+		
+		append(')');
+		opaque = length;
+		raw(')');
+	}
+	
+	/**
+	 * Meet white spaces, which are written as one space if no rule removes it.
+	 */
+	private void space() {
+		if (!space) {
+			space = true;
+			region(' ');
+		}
+	}
+	
+	/**
+	 * Meet a character out of strings and comments.
+	 * @param c The character.
+	 */
+	private void put(char c) throws IOException {
+		region(c);
+		
+		if (c == ';') {
+			semicolon();
+			return;
+		} else if (c == '}') {
+			close();
+			return;
+		}
+		
+		resolve(c);
+		statement(c);
+		
+		switch (c) {
+		case '{':
+			firstLine();
+			append('{');
+			push(atRule && isGroupRule());
+			statementStart = true;
+			open = true;
+			return;
+		case ',':
+			firstLine();
+			append(',');
+			return;
+		case '(':
+			// Keep the space in "@media screen and (...)".
+			if (endsWith("and") && (length == 3 || !isWordChar(text[length - 4]))) {
+				append(' ');
+			}
+			append('(');
+			return;
+		case ')':
+			if (!rgb()) {
+				append(')');
+			}
+			return;
+		case '=':
+			append('=');
+			if (length - ALPHA_FILTER.length() >= opaque && isAlphaFilter(length - ALPHA_FILTER.length())) {
+				replace(length - ALPHA_FILTER.length(), length, ALPHA_SHORT);
+			}
+			return;
+		case '/':
+			append('/');
+			flush();
+			return;
+		}
+		
+		if (c >= '0' && c <= '9') {
+			leadingZero();
+		}
+		
+		append(c);
+		zeroUnit();
+	}
+	
+	/**
+	 * Start a string, comment or data URL.
+	 * @param c The first character.
+	 * @param comment Whether it is a comment.
+	 */
+	private void begin(char c, boolean comment) throws IOException {
+		region(c);
+		resolve(c);
+		
+		if (!comment) {
+			statement(c);
+		}
+	}
+	
+	/**
+	 * Write the pending space, semicolon and "{" before a character.
+	 * @param next The character.
+	 */
+	private void resolve(char next) throws IOException {
+		boolean keep = false;
+		
+		if (space) {
+			space = false;
+			
+			char prev = semicolon ? ';' : last();
+			boolean before = NO_SPACE_BEFORE.indexOf(next) >= 0 && !(next == ':' && region && !regionFailed);
+			
+			keep = !dropSpace && NO_SPACE_AFTER.indexOf(prev) < 0 && !before;
+		}
+		
+		dropSpace = false;
+		
+		// Colors are followed by the space if it is kept.
+		color(keep ? ' ' : next);
+		if (keep) {
+			append(' ');
+		}
+		
+		if (semicolon) {
+			semicolon = false;
+			append(';');
+			flush();
+		}
+		
+		if (open) {
+			open = false;
+			flush();
+		}
+	}
+	
+	/**
+	 * Meet a semicolon, which ends a declaration or statement.
+	 */
+	private void semicolon() {
+		space = false;
+		dropSpace = false;
+		statementStart = true;
+		
+		if (semicolon) {
+			return;
+		}
+		
+		color(';');
+		endDeclaration();
+		
+		// Only the first @charset rule takes effect.
+		if (!open && startsWith("@charset ")) {
+			if (charset) {
+				length = 0;
+				opaque = 0;
+				return;
+			}
+			charset = true;
+		}
+		
+		semicolon = true;
+	}
+	
+	/**
+	 * Meet "}", which ends a block.
+	 */
+	private void close() throws IOException {
+		space = false;
+		dropSpace = false;
+		statementStart = true;
+		
+		if (!semicolon) {
+			endDeclaration();
+		}
+		semicolon = false;
+		
+		// Drop empty rules with their selector.
+		if (open) {
+			open = false;
+			
+			if (length > 1) {
+				length = 0;
+				opaque = 0;
+				pop();
+				
+				// Spaces after "}" are removed before empty rules.
+				dropSpace = true;
+				return;
+			}
+		}
+		
+		color('}');
+		append('}');
+		pop();
+		flush();
+		
+		if (linebreakpos >= 0 && column > linebreakpos) {
+			newline = true;
+			column = 1;
+		}
+	}
+	
+	/**
+	 * Shorten the value at the end of a declaration.
+	 */
+	private void endDeclaration() {
+		// "margin:0 0 0 0" is written as "margin:0".
+		if (endsWith(":0 0 0 0")) {
+			length -= 6;
+		} else if (endsWith(":0 0 0")) {
+			length -= 4;
+		} else if (endsWith(":0 0")) {
+			length -= 2;
+		}
+		
+		if (endsWith(":0")) {
+			// Except for properties which take a pair of values.
+			if (lowerSuffix(ORIGIN_PROPERTIES, length - 2)) {
+				append(" 0");
+			}
+		} else if (endsWithIgnoreCase(":none")) {
+			if (lowerSuffix(NONE_PROPERTIES, length - 5)) {
+				length -= 4;
+				append('0');
+			}
+		}
+	}
+	
+	/**
+	 * Shorten a hex color before a character, from #AABBCC to #abc, except in IE filters.
+	 * @param c The character after the color.
+	 */
+	private void color(char c) {
+		if (isHex(c) || c == '{' || depth == 0 || blocks[depth - 1]) {
+			return;
+		}
+		
+		int k = length - 7;
+		if (k < opaque || text[k] != '#') {
+			return;
+		}
+		
+		for (int i = k + 1; i < length; ++i) {
+			if (!isHex(text[i])) {
+				return;
+			}
+		}
+		
+		int j = k - 1;
+		if (j >= opaque && (text[j] == '"' || text[j] == '\'')) {
+			--j;
+		}
+		if (j >= opaque && text[j] == ' ') {
+			--j;
+		}
+		if (j >= opaque && text[j] == '=') {
+			return;
+		}
+		
+		for (int i = k + 1; i < length; ++i) {
+			text[i] = Character.toLowerCase(text[i]);
+		}
+		
+		if (text[k + 1] == text[k + 2] && text[k + 3] == text[k + 4] && text[k + 5] == text[k + 6]) {
+			text[k + 2] = text[k + 3];
+			text[k + 3] = text[k + 5];
+			length = k + 4;
+		}
+	}
+	
+	/**
+	 * Replace "rgb(51,102,153)" at the end of output with "#336699".
+	 * @return Whether it is replaced.
+	 */
+	private boolean rgb() {
+		int i = length - 1;
+		while (i >= opaque && (text[i] >= '0' && text[i] <= '9' || text[i] == ',' || text[i] == ' ')) {
+			--i;
+		}
+		
+		if (i == length - 1 || i - 3 < opaque || text[i] != '(' || text[i - 1] != 'b' || text[i - 2] != 'g' || text[i - 3] != 'r') {
+			return false;
+		}
+		
+		// Trailing empty values are ignored like String.split does.
+		int end = length;
+		while (end > i + 1 && text[end - 1] == ',') {
+			--end;
+		}
+		
+		StringBuilder hex = new StringBuilder("#");
+		for (int start = i + 1; start < end; ) {
+			int comma = start;
+			long value = 0;
+			
+			while (comma < end && text[comma] != ',') {
+				if (text[comma] == ' ' || comma - start > 9) {
+					return false;
+				}
+				value = value * 10 + text[comma++] - '0';
+			}
+			
+			if (comma == start || value > Integer.MAX_VALUE) {
+				return false;
+			}
+			
+			if (value < 16) {
+				hex.append('0');
+			}
+			hex.append(Integer.toHexString((int) value));
+			start = comma + 1;
+		}
+		
+		length = i - 3;
+		append(hex);
+		return true;
+	}
+	
+	/**
+	 * Remove leading zeros before a digit after ".", from ":0.6" to ":.6".
+	 */
+	private void leadingZero() {
+		int i = length - 1;
+		if (i < opaque || text[i] != '.') {
+			return;
+		}
+		
+		int j = i - 1;
+		while (j >= opaque && text[j] == '0') {
+			--j;
+		}
+		
+		if (j < i - 1 && j >= opaque && (text[j] == ':' || text[j] == ' ')) {
+			text[j + 1] = '.';
+			length = j + 2;
+		}
+	}
+	
+	/**
+	 * Remove the unit of a zero value at the end of output, from ":0px" to ":0".
+	 */
+	private void zeroUnit() {
+		for (String unit : ZERO_UNITS) {
+			int k = length - unit.length() - 1;
+			
+			if (k - 1 >= opaque && text[k] == '0' && (text[k - 1] == ':' || text[k - 1] == ' ') && endsWith(unit)) {
+				length = k + 1;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Keep the space before "{" or "," after ":first-line" and ":first-letter" for IE6.
+	 */
+	private void firstLine() {
+		if (endsWith(":first-line") || endsWith(":first-letter")) {
+			append(' ');
+		}
+	}
+	
+	/**
+	 * Track the part between the start or "}" and the following "{", where spaces before
+	 * pseudo-class colons are kept, unless the part starts with a colon.
+	 * @param c The next character, or the first character of a string, comment or data URL.
+	 */
+	private void region(char c) {
+		if (region && !(c == '}' && regionFailed)) {
+			if (c == '{') {
+				region = false;
+			} else if (regionStart) {
+				regionStart = false;
+				regionFailed = c == ':';
+			}
+		} else if (c == '}') {
+			region = true;
+			regionStart = true;
+			regionFailed = false;
+		}
+	}
+	
+	/**
+	 * Track the name of at-rules at the start of statements.
+	 * @param c The next character.
+	 */
+	private void statement(char c) {
+		if (statementStart) {
+			statementStart = false;
+			atRule = c == '@';
+			naming = atRule;
+			atName.setLength(0);
+		} else if (naming) {
+			if (Character.isLetter(c) || c == '-') {
+				atName.append(Character.toLowerCase(c));
+			} else {
+				naming = false;
+			}
+		}
+	}
+	
+	/**
+	 * Check whether the current at-rule holds rules.
+	 * @return Whether it holds rules.
+	 */
+	private boolean isGroupRule() {
+		String name = atName.toString();
+		
+		for (String group : GROUP_RULES) {
+			if (name.equals(group) || name.endsWith("-" + group)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Open a block.
+	 * @param group Whether it holds rules.
+	 */
+	private void push(boolean group) {
+		if (depth == blocks.length) {
+			blocks = Arrays.copyOf(blocks, depth * 2);
+		}
+		blocks[depth++] = group;
+	}
+	
+	/**
+	 * Close a block.
+	 */
+	private void pop() {
+		if (depth > 0) {
+			--depth;
+		}
+	}
+	
+	/**
+	 * Lower the case of the longest property name in a list ending at a position.
+	 * @param names Property names in lower case.
+	 * @param end The end position.
+	 * @return Whether any name ends there.
+	 */
+	private boolean lowerSuffix(String[] names, int end) {
+		String found = null;
+		
+		for (String name : names) {
+			if ((found == null || name.length() > found.length()) && regionMatches(end - name.length(), name, true)) {
+				found = name;
+			}
+		}
+		
+		if (found == null) {
+			return false;
+		}
+		
+		found.getChars(0, found.length(), text, end - found.length());
+		return true;
+	}
+	
+	/**
+	 * Check whether output has the long IE opacity filter at a position.
+	 * @param start The position.
+	 * @return Whether it matches.
+	 */
+	private boolean isAlphaFilter(int start) {
+		for (int i = 0, n = ALPHA_FILTER.length(); i < n; ++i) {
+			char p = ALPHA_FILTER.charAt(i);
+			char c = text[start + i];
+			
+			if (p != '.' && Character.toLowerCase(p) != Character.toLowerCase(c)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Check whether output ends with a string, out of strings and comments.
+	 * @param s The string.
+	 * @return Whether it matches.
+	 */
+	private boolean endsWith(String s) {
+		return regionMatches(length - s.length(), s, false);
+	}
+	
+	/**
+	 * Check whether output ends with a string ignoring case, out of strings and comments.
+	 * @param s The string in lower case.
+	 * @return Whether it matches.
+	 */
+	private boolean endsWithIgnoreCase(String s) {
+		return regionMatches(length - s.length(), s, true);
+	}
+	
+	/**
+	 * Check whether output not written starts with a string.
+	 * @param s The string.
+	 * @return Whether it matches.
+	 */
+	private boolean startsWith(String s) {
+		return regionMatches(0, s, false);
+	}
+	
+	/**
+	 * Check whether output has a string at a position, out of strings and comments.
+	 * @param start The position.
+	 * @param s The string, in lower case if ignoring case.
+	 * @param ignoreCase Whether to ignore case.
+	 * @return Whether it matches.
+	 */
+	private boolean regionMatches(int start, String s, boolean ignoreCase) {
+		if (start < opaque || start + s.length() > length) {
+			return false;
+		}
+		
+		for (int i = 0, n = s.length(); i < n; ++i) {
+			char c = text[start + i];
+			
+			if ((ignoreCase ? Character.toLowerCase(c) : c) != s.charAt(i)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Replace a part of output.
+	 * @param start Start position of the part.
+	 * @param end End position of the part.
+	 * @param s The replacement, which is not longer than the part.
+	 */
+	private void replace(int start, int end, String s) {
+		s.getChars(0, s.length(), text, start);
+		System.arraycopy(text, end, text, start + s.length(), length - end);
+		length -= end - start - s.length();
+	}
+	
+	/**
+	 * Get the last character of output.
+	 * @return The character, or 0 if nothing is output.
+	 */
+	private char last() {
+		return length > 0 ? text[length - 1] : lastWritten;
+	}
+	
+	/**
+	 * Append a character to output.
+	 * @param c The character.
+	 */
+	private void append(char c) {
+		if (length == text.length) {
+			text = Arrays.copyOf(text, length * 2);
+		}
+		text[length++] = c;
+	}
+	
+	/**
+	 * Append characters to output.
+	 * @param s The characters.
+	 */
+	private void append(CharSequence s) {
+		for (int i = 0, n = s.length(); i < n; ++i) {
+			append(s.charAt(i));
+		}
+	}
+	
+	/**
+	 * Write output not written yet, which no rule rewrites any longer.
+	 */
+	private void flush() throws IOException {
+		if (length == 0) {
+			return;
+		}
+		
+		if (newline) {
+			newline = false;
+			out.write('\n');
+		}
+		
+		// A leading space is kept for rules looking back, and trimmed when written.
+		int start = !written && text[0] == ' ' ? 1 : 0;
+		out.write(text, start, length - start);
+		
+		column += length;
+		lastWritten = text[length - 1];
+		written = true;
+		length = 0;
+		opaque = 0;
+	}
+	
+	/**
+	 * Remember a source character out of comments.
+	 * @param c The character.
+	 */
+	private void raw(char c) {
+		raw3 = raw2;
+		raw2 = raw1;
+		raw1 = c;
+	}
+	
+	/**
+	 * Read a source character.
+	 * @return The character, or -1 at the end.
+	 */
+	private int read() throws IOException {
+		if (inputPos == inputEnd && !fill(1)) {
+			return -1;
+		}
+		
+		return input[inputPos++];
+	}
+	
+	/**
+	 * Look ahead a source character without reading it.
+	 * @param offset Offset of the character from the next one.
+	 * @return The character, or -1 at the end.
+	 */
+	private int peek(int offset) throws IOException {
+		if (inputPos + offset >= inputEnd && !fill(offset + 1)) {
+			return -1;
+		}
+		
+		return input[inputPos + offset];
+	}
+	
+	/**
+	 * Read source characters until the buffer holds a number of characters not read.
+	 * @param n The number of characters.
+	 * @return Whether the buffer holds them.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (inputPos > 0) {
+			System.arraycopy(input, inputPos, input, 0, inputEnd - inputPos);
+			inputEnd -= inputPos;
+			inputPos = 0;
+		}
+		
+		while (inputEnd < n) {
+			int count = in.read(input, inputEnd, input.length - inputEnd);
+			
+			if (count < 0) {
+				return false;
+			}
+			inputEnd += count;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Check whether a character is a white space, as "\s" of regular expressions.
+	 * @param c The character.
+	 * @return Whether it is a white space.
+	 */
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b;
+	}
+	
+	/**
+	 * Check whether a character is a hex digit.
+	 * @param c The character.
+	 * @return Whether it is a hex digit.
+	 */
+	private static boolean isHex(char c) {
+		return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+	}
+	
+	/**
+	 * Check whether a character is a word character, as "\w" of regular expressions.
+	 * @param c The character.
+	 * @return Whether it is a word character.
+	 */
+	private static boolean isWordChar(char c) {
+		return c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+	}
+}
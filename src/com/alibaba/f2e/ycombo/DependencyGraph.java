@@ -0,0 +1,273 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class for the dependencies graph of source files.
+ *
+ * Canonical paths are interned to dense int IDs, and dependencies of each file are
+ * kept as an array of IDs, so travelling the graph compares ints and marks nodes in
+ * bit sets instead of hashing paths. Nodes are kept in chunks which never move, so
+ * they are read without locking while new nodes are added.
+ *
+ * The combination order of the closure of each node is cached once found, so seeds
+ * sharing large sub graphs merge the cached orders instead of travelling them again.
+ * The total size of cached closures is capped, and a change of a node only forgets
+ * closures of the nodes depending on it.
+ */
+public class DependencyGraph {
+	// Number of nodes in a chunk, which is a power of 2.
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	
+	// Size cap of cached closures, in IDs.
+	private static final long CLOSURE_CAP = 16 * 1024 * 1024;
+	
+	// IDs by canonical path.
+	private ConcurrentHashMap<String, Integer> ids;
+	
+	// Chunks of nodes by ID.
+	private volatile Chunk[] chunks;
+	
+	// Number of IDs interned.
+	private volatile int size;
+	
+	// Total size of cached closures, in IDs.
+	private AtomicLong closureSize;
+	
+	public DependencyGraph() {
+		ids = new ConcurrentHashMap<String, Integer>();
+		chunks = new Chunk[0];
+		closureSize = new AtomicLong();
+	}
+	
+	/**
+	 * Get the ID of a canonical path, which is interned if met the first time.
+	 * @param path The canonical path.
+	 * @return The ID.
+	 */
+	public int intern(String path) {
+		Integer id = ids.get(path);
+		
+		if (id == null) {
+			synchronized (this) {
+				id = ids.get(path);
+				
+				if (id == null) {
+					id = size;
+					
+					if (id >> CHUNK_BITS == chunks.length) {
+						Chunk[] larger = Arrays.copyOf(chunks, chunks.length + 1);
+						larger[chunks.length] = new Chunk();
+						chunks = larger;
+					}
+					
+					// The node is filled before others can find its ID.
+					chunk(id).paths.set(id & (CHUNK_SIZE - 1), path);
+					size = id + 1;
+					ids.put(path, id);
+				}
+			}
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * Get the ID of a canonical path.
+	 * @param path The canonical path.
+	 * @return The ID, or -1 if not interned.
+	 */
+	public int find(String path) {
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Get the canonical path of an ID.
+	 * @param id The ID.
+	 * @return The canonical path.
+	 */
+	public String path(int id) {
+		return chunk(id).paths.get(id & (CHUNK_SIZE - 1));
+	}
+	
+	/**
+	 * Get dependencies of a node.
+	 * @param id ID of the node.
+	 * @return IDs of dependencies in order, or null if unknown.
+	 */
+	public int[] get(int id) {
+		return chunk(id).dependencies.get(id & (CHUNK_SIZE - 1));
+	}
+	
+	/**
+	 * Set dependencies of a node.
+	 * @param id ID of the node.
+	 * @param dependencies IDs of dependencies in order, or null if unknown.
+	 */
+	public void put(int id, int[] dependencies) {
+		chunk(id).dependencies.set(id & (CHUNK_SIZE - 1), dependencies);
+	}
+	
+	/**
+	 * Get the cached closure of a node.
+	 * @param id ID of the node.
+	 * @return IDs of the node and its dependencies in combination order, or null if not cached.
+	 */
+	public int[] getClosure(int id) {
+		return chunk(id).closures.get(id & (CHUNK_SIZE - 1));
+	}
+	
+	/**
+	 * Cache the closure of a node, unless the size cap is reached.
+	 * @param id ID of the node.
+	 * @param closure IDs of the node and its dependencies in combination order.
+	 * @return Whether the closure is cached.
+	 */
+	public boolean putClosure(int id, int[] closure) {
+		if (closureSize.addAndGet(closure.length) > CLOSURE_CAP) {
+			closureSize.addAndGet(-closure.length);
+			return false;
+		}
+		
+		// Seeds travelled in parallel may cache the same closure.
+		int[] previous = chunk(id).closures.getAndSet(id & (CHUNK_SIZE - 1), closure);
+		if (previous != null) {
+			closureSize.addAndGet(-previous.length);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Forget cached closures including a node, after dependencies of the node changed.
+	 * Only the node and nodes depending on it transitively have it in their closures,
+	 * so closures of other nodes are kept.
+	 * @param id ID of the node.
+	 */
+	public void clearClosures(int id) {
+		int n = size;
+		
+		// Nodes depending on each node directly, packed by the offset of each node.
+		// Dependencies are taken once, as files read ahead may set them meanwhile.
+		int[][] taken = new int[n][];
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < n; ++i) {
+			taken[i] = get(i);
+			
+			if (taken[i] != null) {
+				for (int d : taken[i]) {
+					// Nodes interned meanwhile are not met from the node.
+					if (d < n) {
+						++offsets[d + 1];
+					}
+				}
+			}
+		}
+		
+		for (int i = 0; i < n; ++i) {
+			offsets[i + 1] += offsets[i];
+		}
+		
+		int[] filled = Arrays.copyOf(offsets, n);
+		int[] dependents = new int[offsets[n]];
+		for (int i = 0; i < n; ++i) {
+			if (taken[i] != null) {
+				for (int d : taken[i]) {
+					if (d < n) {
+						dependents[filled[d]++] = i;
+					}
+				}
+			}
+		}
+		
+		// Walk up from the node, and forget the closure of each node met.
+		BitSet met = new BitSet(n);
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+		
+		met.set(id);
+		queue[tail++] = id;
+		
+		while (head < tail) {
+			int node = queue[head++];
+			
+			int[] closure = chunk(node).closures.getAndSet(node & (CHUNK_SIZE - 1), null);
+			if (closure != null) {
+				closureSize.addAndGet(-closure.length);
+			}
+			
+			for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+				if (!met.get(dependents[i])) {
+					met.set(dependents[i]);
+					queue[tail++] = dependents[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Find nodes depending on a node directly.
+	 * @param id ID of the node.
+	 * @return IDs of nodes depending on it.
+	 */
+	public ArrayList<Integer> dependents(int id) {
+		ArrayList<Integer> dependents = new ArrayList<Integer>();
+		
+		for (int i = 0, n = size; i < n; ++i) {
+			int[] dependencies = get(i);
+			
+			if (dependencies != null) {
+				for (int d : dependencies) {
+					if (d == id) {
+						dependents.add(i);
+						break;
+					}
+				}
+			}
+		}
+		
+		return dependents;
+	}
+	
+	/**
+	 * Get the number of IDs interned, which is larger than any ID.
+	 * @return The number of IDs.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the chunk of a node.
+	 * @param id ID of the node.
+	 * @return The chunk.
+	 */
+	private Chunk chunk(int id) {
+		return chunks[id >> CHUNK_BITS];
+	}
+	
+	/**
+	 * Nodes with consecutive IDs.
+	 */
+	private static class Chunk {
+		// Canonical path of nodes.
+		final AtomicReferenceArray<String> paths = new AtomicReferenceArray<String>(CHUNK_SIZE);
+		
+		// Dependencies of nodes, or null if unknown.
+		final AtomicReferenceArray<int[]> dependencies = new AtomicReferenceArray<int[]>(CHUNK_SIZE);
+		
+		// Closures of nodes in combination order, or null if not cached.
+		final AtomicReferenceArray<int[]> closures = new AtomicReferenceArray<int[]>(CHUNK_SIZE);
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Class for persistent cache of compressed fragments across runs.
+ */
+public class DiskCache {
+	// Root folder of cache entries.
+	private File dir;
+	
+	// Size cap of all cache entries in bytes.
+	private long capacity;
+	
+	// Total size of all cache entries in bytes.
+	private long size;
+	
+	// Size of cache entries by key, in least-recently-used order.
+	private LinkedHashMap<String, Long> entries;
+	
+	/**
+	 * Create a new DiskCache instance with specified folder and size cap.
+	 * @param dir The cache folder.
+	 * @param capacity Size cap of the cache folder in bytes.
+	 */
+	public DiskCache(String dir, long capacity) {
+		this.dir = new File(dir);
+		this.capacity = capacity;
+		
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			App.exit("The cache folder " + dir + " cannot be created.");
+		}
+		
+		load();
+	}
+	
+	/**
+	 * Calculate the content-addressed key of a fragment.
+	 * @param signature Signature of the compressor options.
+	 * @param charset Text encoding of source file.
+	 * @param data Slices of binary data of source file.
+	 * @return The key.
+	 */
+	public String key(String signature, String charset, ByteBuffer[] data) {
+		StringBuilder key = new StringBuilder();
+		
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update((signature + "\n" + charset + "\n").getBytes("UTF-8"));
+			
+			// Slices are left unread for the caller.
+			for (ByteBuffer slice : data) {
+				md.update(slice.duplicate());
+			}
+			
+			for (byte b : md.digest()) {
+				key.append(String.format("%02x", b & 0xFF));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			App.exit(e);
+		} catch (UnsupportedEncodingException e) {
+			App.exit(e);
+		}
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Get a cached fragment.
+	 * @param key Key of the fragment.
+	 * @return The fragment, or null if not cached.
+	 */
+	public String get(String key) {
+		if (!touch(key)) {
+			return null;
+		}
+		
+		File f = locate(key);
+		
+		try {
+			String fragment = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+			
+			// Refresh the access time shared with following runs.
+			f.setLastModified(System.currentTimeMillis());
+			
+			return fragment;
+		} catch (IOException e) {
+			// Entry was removed by another process.
+			forget(key);
+			return null;
+		}
+	}
+	
+	/**
+	 * Store a fragment into cache.
+	 * @param key Key of the fragment.
+	 * @param fragment The fragment.
+	 */
+	public void put(String key, String fragment) {
+		File f = locate(key);
+		
+		try {
+			final byte[] data = fragment.getBytes("UTF-8");
+			
+			// Other processes never see a half-written entry.
+			AtomicFile.write(f, new AtomicFile.Content() {
+				public void write(OutputStream out) throws IOException {
+					out.write(data);
+				}
+			});
+			
+			add(key, data.length);
+		} catch (IOException e) {
+			App.info("Cannot write cache entry " + f.getPath());
+		}
+	}
+	
+	/**
+	 * Get the file of a cache entry.
+	 * @param key Key of the entry.
+	 * @return The entry file.
+	 */
+	private File locate(String key) {
+		return new File(new File(dir, key.substring(0, 2)), key.substring(2));
+	}
+	
+	/**
+	 * Load existing cache entries, from the least recently used one.
+	 */
+	private void load() {
+		ArrayList<File> files = new ArrayList<File>();
+		
+		for (File sub : dir.listFiles()) {
+			if (sub.isDirectory() && sub.getName().length() == 2) {
+				for (File f : sub.listFiles()) {
+					// Remove temporary files left by interrupted runs.
+					if (f.getName().endsWith(".tmp")) {
+						f.delete();
+					} else {
+						files.add(f);
+					}
+				}
+			}
+		}
+		
+		Collections.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long d = a.lastModified() - b.lastModified();
+				return d < 0 ? -1 : (d > 0 ? 1 : 0);
+			}
+		});
+		
+		for (File f : files) {
+			add(f.getParentFile().getName() + f.getName(), f.length());
+		}
+	}
+	
+	/**
+	 * Mark an entry as the most recently used one.
+	 * @param key Key of the entry.
+	 * @return Whether the entry exists.
+	 */
+	private synchronized boolean touch(String key) {
+		return entries.get(key) != null;
+	}
+	
+	/**
+	 * Forget an entry which no longer exists.
+	 * @param key Key of the entry.
+	 */
+	private synchronized void forget(String key) {
+		Long length = entries.remove(key);
+		if (length != null) {
+			size -= length;
+		}
+	}
+	
+	/**
+	 * Record a new entry and evict least recently used entries beyond the size cap.
+	 * @param key Key of the entry.
+	 * @param length Size of the entry in bytes.
+	 */
+	private synchronized void add(String key, long length) {
+		forget(key);
+		entries.put(key, length);
+		size += length;
+		
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > capacity && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			
+			// Keep the entry just added.
+			if (eldest.getKey().equals(key)) {
+				continue;
+			}
+			
+			locate(eldest.getKey()).delete();
+			size -= eldest.getValue();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Class for writing gzip files of output files, which web servers serve as they are.
+ *
+ * Large data is cut into blocks deflated in parallel. Each block starts with the end
+ * of the previous block as dictionary and ends on a byte boundary by a sync flush,
+ * so the blocks put together form a single deflate stream.
+ */
+public class Gzip {
+	// Extension name appended to output files.
+	public static final String SUFFIX = ".gz";
+	
+	// Header of gzip file, with no modification time and maximum compression flag.
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 2, (byte) 0xff };
+	
+	// Size of blocks deflated in parallel.
+	private static final int BLOCK_SIZE = 128 * 1024;
+	
+	// Size of dictionary, which is the window size of deflate.
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	
+	// Worker pool to deflate blocks in parallel, or null to deflate data as a whole.
+	private ExecutorService workers;
+	
+	/**
+	 * Create a new Gzip instance.
+	 * @param workers Worker pool to deflate blocks in parallel, or null to deflate data as a whole.
+	 */
+	public Gzip(ExecutorService workers) {
+		this.workers = workers;
+	}
+	
+	/**
+	 * Get the gzip file of an output file.
+	 * @param target The output file.
+	 * @return The gzip file.
+	 */
+	public static File file(File target) {
+		return new File(target.getPath() + SUFFIX);
+	}
+	
+	/**
+	 * Check whether the gzip file of an output file is written after the output file.
+	 * @param target The output file.
+	 * @return Whether the gzip file is up to date.
+	 */
+	public boolean isUpToDate(File target) {
+		File gz = file(target);
+		
+		return gz.isFile() && gz.lastModified() >= target.lastModified();
+	}
+	
+	/**
+	 * Write the gzip file of an output file.
+	 * @param data Content of the output file.
+	 * @param target The output file.
+	 */
+	public void write(final byte[] data, File target) throws IOException {
+		AtomicFile.write(file(target), new AtomicFile.Content() {
+			public void write(OutputStream out) throws IOException {
+				compress(data, out);
+			}
+		});
+	}
+	
+	/**
+	 * Compress data in gzip format at maximum level.
+	 * @param data The data.
+	 * @param out The output stream.
+	 */
+	public void compress(final byte[] data, OutputStream out) throws IOException {
+		int blocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		
+		out.write(HEADER);
+		
+		if (workers == null || blocks < 2) {
+			out.write(deflate(data, 0, data.length, true));
+		} else {
+			ArrayList<Future<byte[]>> parts = new ArrayList<Future<byte[]>>();
+			
+			for (int i = 0; i < blocks; ++i) {
+				final int offset = i * BLOCK_SIZE;
+				final int length = Math.min(BLOCK_SIZE, data.length - offset);
+				final boolean last = i == blocks - 1;
+				
+				parts.add(workers.submit(new Callable<byte[]>() {
+					public byte[] call() {
+						return deflate(data, offset, length, last);
+					}
+				}));
+			}
+			
+			try {
+				for (Future<byte[]> part : parts) {
+					out.write(part.get());
+				}
+			} catch (InterruptedException e) {
+				App.exit(e);
+			} catch (ExecutionException e) {
+				App.exit(e);
+			} finally {
+				for (Future<byte[]> part : parts) {
+					part.cancel(false);
+				}
+			}
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, data.length);
+	}
+	
+	/**
+	 * Deflate a block of data at maximum level.
+	 * @param data The data.
+	 * @param offset Offset of the block.
+	 * @param length Length of the block.
+	 * @param last Whether the block ends the deflate stream.
+	 * @return The deflated block.
+	 */
+	private static byte[] deflate(byte[] data, int offset, int length, boolean last) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+		byte[] buffer = new byte[8192];
+		int n;
+		
+		try {
+			// Matches can reach back into the previous block as in a single deflate stream.
+			if (offset > 0) {
+				int size = Math.min(offset, DICTIONARY_SIZE);
+				deflater.setDictionary(data, offset - size, size);
+			}
+			
+			deflater.setInput(data, offset, length);
+			
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					n = deflater.deflate(buffer);
+					out.write(buffer, 0, n);
+				}
+			} else {
+				// Output may not fit the buffer, so flush again until it does.
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					out.write(buffer, 0, n);
+				} while (n == buffer.length);
+			}
+		} finally {
+			deflater.end();
+		}
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Write an int in little-endian byte order.
+	 * @param out The output stream.
+	 * @param i The int.
+	 */
+	private static void writeInt(OutputStream out, int i) throws IOException {
+		out.write(i & 0xff);
+		out.write((i >>> 8) & 0xff);
+		out.write((i >>> 16) & 0xff);
+		out.write((i >>> 24) & 0xff);
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.util.*;
+
+/**
+ * Class for in-memory cache bounded by total size, evicting the least recently used entries.
+ */
+public class LruCache<K, V> {
+	// Size cap of all entries in bytes.
+	private long capacity;
+	
+	// Total size of all entries in bytes.
+	private long size;
+	
+	// Entries in least-recently-used order.
+	private LinkedHashMap<K, Entry<V>> entries;
+	
+	// Counters of cache hits, misses and evictions.
+	private long hits, misses, evictions;
+	
+	/**
+	 * Create a new LruCache instance with specified size cap.
+	 * @param capacity Size cap of all entries in bytes.
+	 */
+	public LruCache(long capacity) {
+		this.capacity = capacity;
+		
+		entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}
+	
+	/**
+	 * Get a cached value and mark it as the most recently used one.
+	 * @param key Key of the value.
+	 * @return The value, or null if not cached.
+	 */
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		
+		if (entry == null) {
+			++misses;
+			return null;
+		}
+		
+		++hits;
+		return entry.value;
+	}
+	
+	/**
+	 * Cache a value and evict least recently used values beyond the size cap.
+	 * A value larger than the size cap is not cached at all.
+	 * @param key Key of the value.
+	 * @param value The value.
+	 * @param weight Size of the value in bytes.
+	 */
+	public synchronized void put(K key, V value, long weight) {
+		remove(key);
+		
+		if (weight > capacity) {
+			return;
+		}
+		
+		entries.put(key, new Entry<V>(value, weight));
+		size += weight;
+		
+		evict();
+	}
+	
+	/**
+	 * Change the size of a cached value which has grown, and evict least recently used
+	 * values beyond the size cap. Nothing changes if the key is cached with another value.
+	 * @param key Key of the value.
+	 * @param value The value.
+	 * @param weight New size of the value in bytes.
+	 */
+	public synchronized void resize(K key, V value, long weight) {
+		Entry<V> entry = entries.get(key);
+		
+		if (entry == null || entry.value != value) {
+			return;
+		}
+		
+		if (weight > capacity) {
+			remove(key);
+			return;
+		}
+		
+		size += weight - entry.weight;
+		entry.weight = weight;
+		
+		evict();
+	}
+	
+	/**
+	 * Get a cached value and mark it as the most recently used one, without counting
+	 * a hit or a miss, for lookups of data derived from the value.
+	 * @param key Key of the value.
+	 * @return The value, or null if not cached.
+	 */
+	public synchronized V peek(K key) {
+		Entry<V> entry = entries.get(key);
+		return entry == null ? null : entry.value;
+	}
+	
+	/**
+	 * Remove a cached value.
+	 * @param key Key of the value.
+	 * @return The removed value, or null if not cached.
+	 */
+	public synchronized V remove(K key) {
+		Entry<V> entry = entries.remove(key);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		size -= entry.weight;
+		return entry.value;
+	}
+	
+	/**
+	 * Remove all cached values.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+	
+	/**
+	 * Evict least recently used values beyond the size cap.
+	 */
+	private void evict() {
+		Iterator<Entry<V>> it = entries.values().iterator();
+		while (size > capacity) {
+			size -= it.next().weight;
+			it.remove();
+			++evictions;
+		}
+	}
+	
+	/**
+	 * Get total size of all cached values.
+	 * @return Total size in bytes.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+	
+	/**
+	 * Get the number of cache hits.
+	 * @return The number of hits.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+	
+	/**
+	 * Get the number of cache misses.
+	 * @return The number of misses.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+	
+	/**
+	 * Get the number of evicted values.
+	 * @return The number of evictions.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+	
+	/**
+	 * Cached value with its size.
+	 */
+	private static class Entry<V> {
+		// The value.
+		V value;
+		
+		// Size of the value in bytes.
+		long weight;
+		
+		public Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,404 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class for skipping seeds whose combined files and output are unchanged since the last run.
+ *
+ * For each seed the manifest records the source files in combination order,
+ * the size, modification time and hash of each file, and the same of the output file.
+ * Sizes and modification times are checked first, and files are hashed only if they differ.
+ */
+public class Manifest {
+	// First line of manifest file.
+	private static final String HEADER = "YCombo Manifest 1";
+	
+	// The manifest file.
+	private File file;
+	
+	// Options which affect output files.
+	private String options;
+	
+	// SourceFile instance to read source files.
+	private SourceFile sourceFile;
+	
+	// Records by canonical path of seed file.
+	private ConcurrentHashMap<String, Entry> entries;
+	
+	// Stamps of files taken since last saving, by canonical path.
+	private ConcurrentHashMap<String, String> stamps;
+	
+	// Canonical path of seeds checked or recorded in this run, until records of others are pruned.
+	private volatile Set<String> seen;
+	
+	// Whether some record changed since last saving.
+	private volatile boolean dirty;
+	
+	/**
+	 * Create a new Manifest instance and load records of the last run.
+	 * @param file The manifest file.
+	 * @param options Options which affect output files. Records made with other options are dropped.
+	 * @param sourceFile SourceFile instance to read source files.
+	 */
+	public Manifest(File file, String options, SourceFile sourceFile) {
+		this.file = file;
+		this.options = options;
+		this.sourceFile = sourceFile;
+		
+		entries = new ConcurrentHashMap<String, Entry>();
+		stamps = new ConcurrentHashMap<String, String>();
+		seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		
+		load();
+	}
+	
+	/**
+	 * Get the manifest file.
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Check whether a seed is combined already and nothing changed since.
+	 * @param seed The seed file.
+	 * @param output The output file.
+	 * @return Whether the seed can be skipped.
+	 */
+	public boolean isUpToDate(File seed, File output) throws IOException {
+		return isUpToDate(seed, null, output);
+	}
+	
+	/**
+	 * Check whether a seed is combined already from the given files and nothing changed since.
+	 * @param seed The seed file.
+	 * @param files Canonical path of source files to combine, or null to find them only if some file changed.
+	 * @param output The output file.
+	 * @return Whether the seed can be skipped.
+	 */
+	public boolean isUpToDate(File seed, List<String> files, File output) throws IOException {
+		String key = SourceFile.canonize(seed);
+		Entry entry = entries.get(key);
+		
+		if (seen != null) {
+			seen.add(key);
+		}
+		
+		if (entry == null || !output.isFile() || files != null && !files.equals(Arrays.asList(entry.files))) {
+			return false;
+		}
+		
+		try {
+			boolean same = true;
+			for (int i = 0; i < entry.files.length && same; ++i) {
+				same = stamp(entry.files[i]).equals(entry.stamps[i]);
+			}
+			
+			// Files touched but not modified do not count.
+			if (!same) {
+				if (files == null && !sourceFile.combo(seed).equals(Arrays.asList(entry.files))) {
+					return false;
+				}
+				
+				for (int i = 0; i < entry.files.length; ++i) {
+					String stamp = stamp(entry.files[i]);
+					
+					if (!stamp.equals(entry.stamps[i])) {
+						if (!hash(sourceFile.readBinary(entry.files[i])).equals(entry.hashes[i])) {
+							return false;
+						}
+						entry.stamps[i] = stamp;
+						dirty = true;
+					}
+				}
+			}
+		} catch (SourceFileException e) {
+			return false;
+		}
+		
+		String stamp = SourceFile.stamp(output);
+		if (!stamp.equals(entry.outputStamp)) {
+			if (!hash(output).equals(entry.outputHash)) {
+				return false;
+			}
+			entry.outputStamp = stamp;
+			dirty = true;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Record a seed just combined.
+	 * @param seed The seed file.
+	 * @param files Canonical path of source files in combination order.
+	 * @param output The output file.
+	 */
+	public void record(File seed, List<String> files, File output) throws IOException, SourceFileException {
+		Entry entry = new Entry();
+		int n = files.size();
+		
+		entry.files = files.toArray(new String[n]);
+		entry.stamps = new String[n];
+		entry.hashes = new String[n];
+		
+		for (int i = 0; i < n; ++i) {
+			// The stamp is taken when the data hashed is read.
+			entry.hashes[i] = hash(sourceFile.readBinary(entry.files[i]));
+			entry.stamps[i] = sourceFile.readStamp(entry.files[i]);
+		}
+		
+		entry.outputStamp = SourceFile.stamp(output);
+		entry.outputHash = hash(output);
+		
+		String key = SourceFile.canonize(seed);
+		entries.put(key, entry);
+		dirty = true;
+		
+		if (seen != null) {
+			seen.add(key);
+		}
+	}
+	
+	/**
+	 * Forget a seed failed to combine.
+	 * @param seed The seed file.
+	 */
+	public void forget(File seed) {
+		if (entries.remove(SourceFile.canonize(seed)) != null) {
+			dirty = true;
+		}
+	}
+	
+	/**
+	 * Save records if changed, and check files again in the next run.
+	 * The first saving drops records of seeds not met in the run, such as removed seeds,
+	 * while following savings of watching keep records of seeds not changed.
+	 */
+	public synchronized void save() {
+		stamps.clear();
+		
+		if (seen != null) {
+			if (entries.keySet().retainAll(seen)) {
+				dirty = true;
+			}
+			seen = null;
+		}
+		
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		
+		try {
+			// A broken manifest is never read.
+			AtomicFile.write(file, new AtomicFile.Content() {
+				public void write(OutputStream stream) throws IOException {
+					Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+					out.write(HEADER + "\n" + options + "\n");
+					
+					for (Map.Entry<String, Entry> e : entries.entrySet()) {
+						Entry entry = e.getValue();
+						
+						out.write(e.getKey() + "\t" + entry.outputStamp + "\t" + entry.outputHash + "\n");
+						for (int i = 0; i < entry.files.length; ++i) {
+							out.write("\t" + entry.files[i] + "\t" + entry.stamps[i] + "\t" + entry.hashes[i] + "\n");
+						}
+					}
+					
+					out.flush();
+				}
+			});
+		} catch (IOException e) {
+			App.err("Cannot write manifest " + file.getPath());
+		}
+	}
+	
+	/**
+	 * Load records of the last run, if made with the same options.
+	 */
+	private void load() {
+		if (!file.isFile()) {
+			return;
+		}
+		
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				if (!HEADER.equals(in.readLine()) || !options.equals(in.readLine())) {
+					return;
+				}
+				
+				String seed = null;
+				Entry entry = null;
+				ArrayList<String[]> files = new ArrayList<String[]>();
+				String line;
+				
+				while (true) {
+					line = in.readLine();
+					
+					// A line of seed follows lines of its files.
+					if (line == null || !line.startsWith("\t")) {
+						if (entry != null) {
+							entry.files = new String[files.size()];
+							entry.stamps = new String[files.size()];
+							entry.hashes = new String[files.size()];
+							
+							for (int i = 0; i < files.size(); ++i) {
+								entry.files[i] = files.get(i)[0];
+								entry.stamps[i] = files.get(i)[1];
+								entry.hashes[i] = files.get(i)[2];
+							}
+							
+							entries.put(seed, entry);
+						}
+						
+						if (line == null) {
+							break;
+						}
+						
+						String[] fields = line.split("\t");
+						if (fields.length != 3) {
+							throw new IOException("invalid line " + line);
+						}
+						
+						seed = fields[0];
+						entry = new Entry();
+						entry.outputStamp = fields[1];
+						entry.outputHash = fields[2];
+						files.clear();
+					} else {
+						String[] fields = line.substring(1).split("\t");
+						if (fields.length != 3 || entry == null) {
+							throw new IOException("invalid line " + line);
+						}
+						
+						files.add(fields);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// A broken manifest simply means everything is combined again.
+			App.info("Cannot read manifest " + file.getPath());
+			entries.clear();
+		}
+	}
+	
+	/**
+	 * Get the current stamp of a file, taken once until saving.
+	 * @param path Canonical path of the file.
+	 * @return The stamp.
+	 */
+	private String stamp(String path) {
+		String stamp = stamps.get(path);
+		
+		if (stamp == null) {
+			stamp = SourceFile.stamp(new File(path));
+			stamps.put(path, stamp);
+		}
+		
+		return stamp;
+	}
+	
+	/**
+	 * Hash binary data of a source file.
+	 * @param data Slices of binary data.
+	 * @return The hash.
+	 */
+	private static String hash(ByteBuffer[] data) {
+		MessageDigest md = digest();
+		
+		for (ByteBuffer slice : data) {
+			md.update(slice);
+		}
+		
+		return hex(md.digest());
+	}
+	
+	/**
+	 * Hash content of a file.
+	 * @param f The file.
+	 * @return The hash.
+	 */
+	private static String hash(File f) throws IOException {
+		MessageDigest md = digest();
+		InputStream in = new FileInputStream(f);
+		
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				md.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		
+		return hex(md.digest());
+	}
+	
+	/**
+	 * Create a message digest.
+	 * @return The SHA-1 message digest.
+	 */
+	private static MessageDigest digest() {
+		MessageDigest md = null;
+		
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			App.exit(e);
+		}
+		
+		return md;
+	}
+	
+	/**
+	 * Format a digest in hex.
+	 * @param digest The digest.
+	 * @return The hex string.
+	 */
+	private static String hex(byte[] digest) {
+		StringBuilder s = new StringBuilder();
+		
+		for (byte b : digest) {
+			s.append(String.format("%02x", b & 0xFF));
+		}
+		
+		return s.toString();
+	}
+	
+	/**
+	 * Record of a seed.
+	 */
+	private static class Entry {
+		// Canonical path of source files in combination order.
+		String[] files;
+		
+		// Size and modification time of source files.
+		String[] stamps;
+		
+		// Hash of source files excluding #require statements.
+		String[] hashes;
+		
+		// Size and modification time of output file.
+		String outputStamp;
+		
+		// Hash of output file.
+		String outputHash;
+	}
+}
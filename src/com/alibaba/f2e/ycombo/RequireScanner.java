@@ -0,0 +1,414 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Class for scanning #require statements on raw bytes of ASCII compatible source files.
+ *
+ * It finds exactly what PATTERN_REQUIRE of SourceFile finds in the decoded text,
+ * including all line terminators recognized by "^" and "$" in multiline mode,
+ * so source files don't have to be decoded and encoded again.
+ */
+public class RequireScanner {
+	// Supported charsets.
+	private static final int UTF_8 = 0, US_ASCII = 1, ISO_8859_1 = 2;
+	
+	// Charset of source files.
+	private int charset;
+	
+	// Stop scanning at the first line which is neither comment nor #require statement.
+	private boolean strictHeader;
+	
+	/**
+	 * Create a new RequireScanner instance.
+	 * @param charset One of the supported charsets.
+	 * @param strictHeader Stop scanning at the first line of code.
+	 */
+	private RequireScanner(int charset, boolean strictHeader) {
+		this.charset = charset;
+		this.strictHeader = strictHeader;
+	}
+	
+	/**
+	 * Create a RequireScanner instance for source files in the given charset.
+	 * @param charset Text encoding of source files.
+	 * @param strictHeader Stop scanning at the first line of code.
+	 * @return The RequireScanner instance, or null if the charset is not supported.
+	 */
+	public static RequireScanner forCharset(String charset, boolean strictHeader) {
+		Charset cs = Charset.forName(charset);
+		
+		if (cs.equals(StandardCharsets.UTF_8)) {
+			return new RequireScanner(UTF_8, strictHeader);
+		} else if (cs.equals(StandardCharsets.US_ASCII)) {
+			return new RequireScanner(US_ASCII, strictHeader);
+		} else if (cs.equals(StandardCharsets.ISO_8859_1)) {
+			return new RequireScanner(ISO_8859_1, strictHeader);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Check whether binary data can be decoded by the charset without errors.
+	 * @param data Binary data of source file, from position 0 to limit.
+	 * @return Whether the data is well-formed.
+	 */
+	public boolean isValid(ByteBuffer data) {
+		int n = data.limit();
+		
+		if (charset == ISO_8859_1) {
+			return true;
+		}
+		
+		for (int i = 0; i < n; ++i) {
+			int b = data.get(i) & 0xFF;
+			
+			if (b < 0x80) {
+				continue;
+			} else if (charset == US_ASCII) {
+				return false;
+			}
+			
+			// Well-formed UTF-8 byte sequences, see table 3-7 of the Unicode Standard.
+			int more, lo = 0x80, hi = 0xBF;
+			if (b >= 0xC2 && b <= 0xDF) {
+				more = 1;
+			} else if (b >= 0xE0 && b <= 0xEF) {
+				more = 2;
+				if (b == 0xE0) {
+					lo = 0xA0;
+				} else if (b == 0xED) {
+					hi = 0x9F;
+				}
+			} else if (b >= 0xF0 && b <= 0xF4) {
+				more = 3;
+				if (b == 0xF0) {
+					lo = 0x90;
+				} else if (b == 0xF4) {
+					hi = 0x8F;
+				}
+			} else {
+				return false;
+			}
+			
+			if (i + more >= n) {
+				return false;
+			}
+			
+			int c = data.get(++i) & 0xFF;
+			if (c < lo || c > hi) {
+				return false;
+			}
+			
+			while (--more > 0) {
+				c = data.get(++i) & 0xFF;
+				if (c < 0x80 || c > 0xBF) {
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Find #require statements.
+	 * @param data Binary data of source file, from position 0 to limit.
+	 * @return The statements in order.
+	 */
+	public ArrayList<Match> scan(ByteBuffer data) {
+		ArrayList<Match> matches = new ArrayList<Match>();
+		int n = data.limit();
+		int pos = 0;
+		
+		while (pos < n) {
+			if (isLineStart(data, pos)) {
+				Match m = match(data, pos);
+				if (m.end >= 0) {
+					matches.add(m);
+					pos = m.end;
+					continue;
+				}
+				
+				// Later line starts in the same whitespace run fail at the same position.
+				pos = m.start;
+			} else if (isSpace(data.get(pos))) {
+				++pos;
+				continue;
+			}
+			
+			if (pos >= n) {
+				break;
+			}
+			
+			if (!strictHeader) {
+				pos = nextLineStart(data, pos);
+			} else if (data.get(pos) == '/' && pos + 1 < n && data.get(pos + 1) == '/') {
+				// Skip single-line comment.
+				while (pos < n && terminator(data, pos) == 0) {
+					++pos;
+				}
+			} else if (data.get(pos) == '/' && pos + 1 < n && data.get(pos + 1) == '*') {
+				// Skip multi-line comment.
+				pos += 3;
+				while (pos < n && !(data.get(pos - 2) == '*' && data.get(pos - 1) == '/')) {
+					++pos;
+				}
+			} else {
+				// Code starts here.
+				break;
+			}
+		}
+		
+		return matches;
+	}
+	
+	/**
+	 * Match a #require statement at a line start.
+	 * @param data Binary data of source file.
+	 * @param p The line start.
+	 * @return The match, whose end is -1 and start is the first non-whitespace position if not matched.
+	 */
+	private Match match(ByteBuffer data, int p) {
+		int n = data.limit();
+		Match m = new Match();
+		
+		int q = p;
+		while (q < n && isSpace(data.get(q))) {
+			++q;
+		}
+		
+		m.start = q;
+		m.end = -1;
+		
+		// "//" or "/*", then a whitespace.
+		int k = q;
+		if (k + 2 >= n || data.get(k) != '/' || (data.get(k + 1) != '/' && data.get(k + 1) != '*') || !isSpace(data.get(k + 2))) {
+			return m;
+		}
+		k += 3;
+		
+		// "#require", then a whitespace.
+		byte[] keyword = { '#', 'r', 'e', 'q', 'u', 'i', 'r', 'e' };
+		if (k + keyword.length >= n) {
+			return m;
+		}
+		for (byte b : keyword) {
+			if (data.get(k++) != b) {
+				return m;
+			}
+		}
+		if (!isSpace(data.get(k++))) {
+			return m;
+		}
+		
+		// Opening of path.
+		if (k >= n || (data.get(k) != '"' && data.get(k) != '<')) {
+			return m;
+		}
+		char bracket = (char) data.get(k++);
+		
+		// Path, which is never followed by a path character.
+		int start = k;
+		while (k < n && isPathChar(data.get(k))) {
+			++k;
+		}
+		if (k == start) {
+			return m;
+		}
+		int end = k;
+		
+		// Closing of path.
+		if (k >= n || (data.get(k) != '"' && data.get(k) != '>')) {
+			return m;
+		}
+		++k;
+		
+		// Optional closing of comment, then trailing whitespaces till a line end.
+		int e = -1;
+		if (k + 2 < n && isSpace(data.get(k)) && data.get(k + 1) == '*' && data.get(k + 2) == '/') {
+			e = lineEnd(data, k + 3);
+		}
+		if (e < 0) {
+			e = lineEnd(data, k);
+		}
+		if (e < 0) {
+			return m;
+		}
+		
+		m.start = p;
+		m.end = e;
+		m.bracket = bracket;
+		
+		// Path characters are all ASCII.
+		char[] path = new char[end - start];
+		for (int i = start; i < end; ++i) {
+			path[i - start] = (char) data.get(i);
+		}
+		m.path = new String(path);
+		
+		return m;
+	}
+	
+	/**
+	 * Match trailing whitespaces till a line end as greedy as "\s*$".
+	 * @param data Binary data of source file.
+	 * @param r Start position.
+	 * @return Position of the line end, or -1 if not matched.
+	 */
+	private int lineEnd(ByteBuffer data, int r) {
+		int m = r;
+		while (m < data.limit() && isSpace(data.get(m))) {
+			++m;
+		}
+		
+		for (int j = m; j >= r; --j) {
+			if (isLineEnd(data, j)) {
+				return j;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Check whether "^" matches at a position in multiline mode.
+	 * @param data Binary data of source file.
+	 * @param i The position.
+	 * @return Whether it is a line start.
+	 */
+	private boolean isLineStart(ByteBuffer data, int i) {
+		if (i >= data.limit()) {
+			return false;
+		}
+		if (i == 0) {
+			return true;
+		}
+		
+		int b = data.get(i - 1) & 0xFF;
+		
+		if (b == '\n') {
+			return true;
+		} else if (b == '\r') {
+			// "\r\n" is treated as one line terminator.
+			return data.get(i) != '\n';
+		} else if (charset == UTF_8) {
+			return (i >= 2 && terminator(data, i - 2) == 2) || (i >= 3 && terminator(data, i - 3) == 3);
+		} else if (charset == ISO_8859_1) {
+			return b == 0x85;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Check whether "$" matches at a position in multiline mode.
+	 * @param data Binary data of source file.
+	 * @param j The position.
+	 * @return Whether it is a line end.
+	 */
+	private boolean isLineEnd(ByteBuffer data, int j) {
+		if (j >= data.limit()) {
+			return true;
+		}
+		
+		// No line end between "\r" and "\n".
+		if (data.get(j) == '\n' && j > 0 && data.get(j - 1) == '\r') {
+			return false;
+		}
+		
+		return terminator(data, j) > 0;
+	}
+	
+	/**
+	 * Find the first line start after a position.
+	 * @param data Binary data of source file.
+	 * @param pos The position.
+	 * @return The line start, or length of data if not found.
+	 */
+	private int nextLineStart(ByteBuffer data, int pos) {
+		int n = data.limit();
+		
+		for (int j = pos; j < n; ++j) {
+			int len = terminator(data, j);
+			
+			if (len > 0) {
+				// "\r\n" is treated as one line terminator.
+				if (data.get(j) == '\r' && j + 1 < n && data.get(j + 1) == '\n') {
+					++len;
+				}
+				return j + len;
+			}
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Get length of the line terminator at a position, which is one of
+	 * "\n", "\r", "\u0085", "\u2028" and "\u2029".
+	 * @param data Binary data of source file.
+	 * @param j The position.
+	 * @return Length of the terminator in bytes, or 0 if not a terminator.
+	 */
+	private int terminator(ByteBuffer data, int j) {
+		int b = data.get(j) & 0xFF;
+		
+		if (b == '\n' || b == '\r') {
+			return 1;
+		} else if (charset == UTF_8) {
+			if (b == 0xC2 && j + 1 < data.limit() && (data.get(j + 1) & 0xFF) == 0x85) {
+				return 2;
+			} else if (b == 0xE2 && j + 2 < data.limit() && (data.get(j + 1) & 0xFF) == 0x80
+					&& ((data.get(j + 2) & 0xFF) == 0xA8 || (data.get(j + 2) & 0xFF) == 0xA9)) {
+				return 3;
+			}
+		} else if (charset == ISO_8859_1 && b == 0x85) {
+			return 1;
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Check whether a byte is matched by "\s".
+	 * @param b The byte.
+	 * @return Whether it is a whitespace.
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+	
+	/**
+	 * Check whether a byte is matched by "[\w\-\./]".
+	 * @param b The byte.
+	 * @return Whether it is a path character.
+	 */
+	private static boolean isPathChar(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+			|| b == '_' || b == '-' || b == '.' || b == '/';
+	}
+	
+	/**
+	 * A #require statement found.
+	 */
+	public static class Match {
+		// Byte range of the statement to remove.
+		int start, end;
+		
+		// "<" if path is related to root folder, or "\"" if related to the source file.
+		char bracket;
+		
+		// Path of required file.
+		String path;
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class for locating required files with cached results.
+ *
+ * Many files require the same files, so each required path is located once from each
+ * base folder. Each folder is listed once to check whether files exist, instead of
+ * checking every file, and only folders and symbolic links are resolved to canonical
+ * paths. Results are kept until files are changed.
+ */
+public class Resolver {
+	// Result of files not found.
+	private static final String NOT_FOUND = "";
+	
+	// Canonical path of required files by base folder and required path.
+	private ConcurrentHashMap<String, String> requires;
+	
+	// Canonical path of folders by path.
+	private ConcurrentHashMap<String, String> folders;
+	
+	// Names of files in folders by canonical path of folder.
+	private ConcurrentHashMap<String, Set<String>> listings;
+	
+	public Resolver() {
+		requires = new ConcurrentHashMap<String, String>();
+		folders = new ConcurrentHashMap<String, String>();
+		listings = new ConcurrentHashMap<String, Set<String>>();
+	}
+	
+	/**
+	 * Locate a required file.
+	 * @param base The canonical path of base folder.
+	 * @param required Path of required file related to base folder.
+	 * @return Canonical path of required file, or null if not found.
+	 */
+	public String resolve(String base, String required) {
+		String key = base + "\n" + required;
+		String path = requires.get(key);
+		
+		if (path == null) {
+			path = locate(new File(base, required));
+			requires.put(key, path);
+		}
+		
+		return path.equals(NOT_FOUND) ? null : path;
+	}
+	
+	/**
+	 * Forget results which may be changed by creating, deleting or changing a file.
+	 * @param path The canonical path of file.
+	 */
+	public void invalidate(String path) {
+		String prefix = path + File.separator;
+		
+		// A created file may be required by files not found before.
+		Iterator<String> it = requires.values().iterator();
+		while (it.hasNext()) {
+			String value = it.next();
+			if (value.equals(NOT_FOUND) || value.equals(path) || value.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+		
+		it = folders.values().iterator();
+		while (it.hasNext()) {
+			String value = it.next();
+			if (value.equals(NOT_FOUND) || value.equals(path) || value.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+		
+		listings.remove(path);
+		listings.remove(new File(path).getParent());
+	}
+	
+	/**
+	 * Forget files not found, which may be created since.
+	 */
+	public void refresh() {
+		requires.values().removeAll(Collections.singleton(NOT_FOUND));
+		folders.values().removeAll(Collections.singleton(NOT_FOUND));
+	}
+	
+	/**
+	 * Locate a file by listing its folder.
+	 * @param f The file.
+	 * @return Canonical path of the file, or NOT_FOUND.
+	 */
+	private String locate(File f) {
+		File parent = f.getParentFile();
+		String name = f.getName();
+		
+		// Names such as ".." are not listed.
+		if (parent == null || name.equals(".") || name.equals("..")) {
+			return f.exists() ? SourceFile.canonize(f) : NOT_FOUND;
+		}
+		
+		String folder = folder(parent.getPath());
+		
+		if (folder.equals(NOT_FOUND)) {
+			return NOT_FOUND;
+		}
+		
+		File located = new File(folder, name);
+		
+		// File systems ignoring case find files not listed by the same name.
+		if (!list(folder).contains(name)) {
+			return located.exists() ? SourceFile.canonize(located) : NOT_FOUND;
+		}
+		
+		// In a canonical folder, only a symbolic link has a different canonical path.
+		if (Files.isSymbolicLink(located.toPath())) {
+			return SourceFile.canonize(located);
+		}
+		
+		return located.getPath();
+	}
+	
+	/**
+	 * Get the canonical path of a folder.
+	 * @param path Path of the folder.
+	 * @return Canonical path of the folder, or NOT_FOUND.
+	 */
+	private String folder(String path) {
+		String folder = folders.get(path);
+		
+		if (folder == null) {
+			File f = new File(path);
+			folder = f.isDirectory() ? SourceFile.canonize(f) : NOT_FOUND;
+			folders.put(path, folder);
+		}
+		
+		return folder;
+	}
+	
+	/**
+	 * Get the names of files in a folder.
+	 * @param folder Canonical path of the folder.
+	 * @return Names of files.
+	 */
+	private Set<String> list(String folder) {
+		Set<String> names = listings.get(folder);
+		
+		if (names == null) {
+			String[] list = new File(folder).list();
+			names = new HashSet<String>(list == null ? Collections.<String>emptyList() : Arrays.asList(list));
+			listings.put(folder, names);
+		}
+		
+		return names;
+	}
+}
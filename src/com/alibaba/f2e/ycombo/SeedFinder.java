@@ -0,0 +1,452 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class for finding seed files under input paths.
+ *
+ * Folders are walked in parallel, and seeds are handed out as soon as they are found.
+ * Meta-data folders such as ".svn" are skipped, and so are paths matching
+ * exclude patterns or patterns listed in ".ycomboignore" files. Symbolic links
+ * are followed, except a link to a folder containing it, which would never end.
+ */
+public class SeedFinder {
+	// Name of ignore file, which lists patterns of paths to skip in its folder.
+	public static final String IGNORE_FILE = ".ycomboignore";
+	
+	// Marks the end of seeds found.
+	private static final File END = new File("");
+	
+	// Extension name of js seed file.
+	private String jsExt;
+	
+	// Extension name of css seed file.
+	private String cssExt;
+	
+	// Exclude patterns from command line.
+	private Rules excludes;
+	
+	// Patterns applied in each folder walked, by absolute path of folder.
+	private ConcurrentHashMap<Path, Rules> walked;
+	
+	// Timings of current run, or null if not recorded.
+	private Stats stats;
+	
+	/**
+	 * Create a new SeedFinder instance.
+	 * @param extname Seed file extension name.
+	 * @param excludes Glob patterns of paths to skip.
+	 */
+	public SeedFinder(String extname, List<String> excludes) {
+		jsExt = ".js." + extname;
+		cssExt = ".css." + extname;
+		
+		this.excludes = new Rules(null, null, excludes);
+		walked = new ConcurrentHashMap<Path, Rules>();
+	}
+	
+	/**
+	 * Record time spent in finding seeds.
+	 * @param stats The Stats instance, or null to stop recording.
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats;
+	}
+	
+	/**
+	 * Find seeds under the input paths in the background.
+	 * @param inputs Input paths.
+	 * @return Seeds in the order found, which blocks until more seeds are found or all input paths are walked.
+	 */
+	public Iterable<File> start(List<File> inputs) {
+		final LinkedBlockingQueue<File> queue = new LinkedBlockingQueue<File>();
+		final ForkJoinPool pool = new ForkJoinPool();
+		final ArrayList<Walk> walks = new ArrayList<Walk>();
+		final Stats stats = this.stats;
+		
+		for (File f : inputs) {
+			Path path = f.toPath();
+			Rules rules = rules(path);
+			
+			if (rules != null) {
+				walks.add(new Walk(path, rules, queue, new HashSet<Object>()));
+			}
+		}
+		
+		pool.execute(new RecursiveAction() {
+			protected void compute() {
+				long start = System.nanoTime();
+				
+				try {
+					invokeAll(walks);
+				} finally {
+					if (stats != null) {
+						stats.add(Stats.FIND, System.nanoTime() - start);
+					}
+					queue.add(END);
+				}
+			}
+		});
+		
+		return new Iterable<File>() {
+			public Iterator<File> iterator() {
+				return new Iterator<File>() {
+					// The next seed, or null if not taken yet.
+					private File next;
+					
+					public boolean hasNext() {
+						if (next == null) {
+							try {
+								next = queue.take();
+							} catch (InterruptedException e) {
+								App.exit(e);
+							}
+							
+							if (next == END) {
+								// Let later calls see the end too.
+								queue.add(END);
+								pool.shutdown();
+							}
+						}
+						
+						return next != END;
+					}
+					
+					public File next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						
+						File seed = next;
+						next = null;
+						return seed;
+					}
+					
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Find seeds under a path and wait for all of them.
+	 * @param f The path, which is a seed file or a folder.
+	 * @return Seeds found, in path order.
+	 */
+	public ArrayList<File> find(File f) {
+		ArrayList<File> seeds = new ArrayList<File>();
+		
+		for (File seed : start(Arrays.asList(f))) {
+			seeds.add(seed);
+		}
+		
+		// Folders are walked in parallel, so seeds are sorted to keep the same order between runs.
+		Collections.sort(seeds);
+		
+		return seeds;
+	}
+	
+	/**
+	 * Get patterns applied to a path, which is walked already or lies under a walked folder.
+	 * @param path The path.
+	 * @return The patterns, or null if the path is skipped.
+	 */
+	private Rules rules(Path path) {
+		Path abs = path.toAbsolutePath().normalize();
+		
+		// Find the nearest walked folder.
+		ArrayList<Path> names = new ArrayList<Path>();
+		Path folder = abs;
+		Rules rules = null;
+		
+		while (folder != null && (rules = walked.get(folder)) == null) {
+			names.add(folder);
+			folder = folder.getParent();
+		}
+		
+		// Input paths out of walked folders are never skipped.
+		if (rules == null) {
+			return excludes;
+		}
+		
+		// Paths skipped by the walked folder skip everything under them as well.
+		for (int i = names.size() - 1; i >= 0; --i) {
+			if (skip(names.get(i), i > 0 || Files.isDirectory(abs), rules)) {
+				return null;
+			}
+		}
+		
+		return rules;
+	}
+	
+	/**
+	 * Check whether to skip a path.
+	 * @param abs Absolute path.
+	 * @param isDirectory Whether the path is a folder.
+	 * @param rules Patterns applied to the path.
+	 * @return Whether to skip it.
+	 */
+	private static boolean skip(Path abs, boolean isDirectory, Rules rules) {
+		String name = abs.getFileName().toString();
+		
+		// Skip meta-data folders such as ".svn".
+		if (isDirectory && name.startsWith(".")) {
+			return true;
+		}
+		
+		for (Rules r = rules; r != null; r = r.parent) {
+			if (r.matches(abs, isDirectory)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Task to walk a folder, and sub folders in parallel.
+	 */
+	private class Walk extends RecursiveAction {
+		// Path of the folder, or a single seed file.
+		private Path path;
+		
+		// Patterns applied to the folder.
+		private Rules rules;
+		
+		// Queue to put found seeds.
+		private BlockingQueue<File> queue;
+		
+		// Keys of folders walked down to this one, to find links back to them.
+		private Set<Object> ancestors;
+		
+		public Walk(Path path, Rules rules, BlockingQueue<File> queue, Set<Object> ancestors) {
+			this.path = path;
+			this.rules = rules;
+			this.queue = queue;
+			this.ancestors = ancestors;
+		}
+		
+		protected void compute() {
+			BasicFileAttributes attrs;
+			
+			try {
+				attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (IOException e) {
+				// Missing input paths are simply ignored.
+				return;
+			}
+			
+			if (!attrs.isDirectory()) {
+				found(path, attrs);
+				return;
+			}
+			
+			// Links are followed, so a link to a folder containing it is walked only once.
+			Object key = attrs.fileKey();
+			try {
+				if (key == null) {
+					key = path.toRealPath();
+				}
+			} catch (IOException e) {
+				return;
+			}
+			
+			if (ancestors.contains(key)) {
+				App.info("Skip " + path + " linking to a folder containing it");
+				return;
+			}
+			
+			final Set<Object> trail = new HashSet<Object>(ancestors);
+			trail.add(key);
+			
+			final Path abs = path.toAbsolutePath().normalize();
+			
+			// Patterns of ignore file apply to the folder and its sub folders.
+			Path ignore = abs.resolve(IGNORE_FILE);
+			if (Files.isRegularFile(ignore)) {
+				try {
+					rules = new Rules(rules, abs, Files.readAllLines(ignore, StandardCharsets.UTF_8));
+				} catch (IOException e) {
+					App.err("Cannot read " + ignore);
+				}
+			}
+			walked.put(abs, rules);
+			
+			final ArrayList<Walk> subs = new ArrayList<Walk>();
+			final Rules current = rules;
+			
+			// Entries are visited one level deep, and sub folders are walked by their own tasks.
+			// The walker reuses attributes read along with the folder listing where the platform
+			// provides them, as on Windows, and reads them entry by entry elsewhere.
+			try {
+				Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+					public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+						if (!skip(abs.resolve(entry.getFileName()), attrs.isDirectory(), current)) {
+							if (attrs.isDirectory()) {
+								subs.add(new Walk(entry, current, queue, trail));
+							} else {
+								found(entry, attrs);
+							}
+						}
+						
+						return FileVisitResult.CONTINUE;
+					}
+					
+					public FileVisitResult visitFileFailed(Path entry, IOException e) {
+						// Entries which cannot be read are simply ignored.
+						if (entry.equals(path)) {
+							App.err("Cannot read folder " + path);
+						}
+						
+						return FileVisitResult.CONTINUE;
+					}
+					
+					public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+						if (e != null) {
+							App.err("Cannot read folder " + path);
+						}
+						
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				App.err("Cannot read folder " + path);
+			}
+			
+			invokeAll(subs);
+		}
+		
+		/**
+		 * Hand out a file if it is a seed.
+		 * @param file The file.
+		 * @param attrs Attributes of the file.
+		 */
+		private void found(Path file, BasicFileAttributes attrs) {
+			String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase();
+			
+			if (attrs.isRegularFile() && (name.endsWith(jsExt) || name.endsWith(cssExt))) {
+				queue.add(file.toFile());
+			}
+		}
+	}
+	
+	/**
+	 * Patterns of paths to skip, from command line or an ignore file.
+	 */
+	private static class Rules {
+		// Patterns applied to the parent folder.
+		Rules parent;
+		
+		// Folder which patterns are related to, or null if related to any folder.
+		Path base;
+		
+		// Parsed patterns.
+		ArrayList<Pattern> patterns;
+		
+		/**
+		 * Parse patterns.
+		 * @param parent Patterns applied to the parent folder.
+		 * @param base Folder which patterns are related to, or null if related to any folder.
+		 * @param lines Glob patterns, one per line, where "#" starts a comment line.
+		 */
+		public Rules(Rules parent, Path base, List<String> lines) {
+			this.parent = parent;
+			this.base = base;
+			
+			patterns = new ArrayList<Pattern>();
+			
+			for (String line : lines) {
+				String glob = line.trim();
+				if (glob.length() == 0 || glob.startsWith("#")) {
+					continue;
+				}
+				
+				Pattern pattern = new Pattern();
+				
+				// A trailing "/" matches folders only.
+				while (glob.endsWith("/")) {
+					glob = glob.substring(0, glob.length() - 1);
+					pattern.dirOnly = true;
+				}
+				
+				// A pattern without "/" matches the file name at any depth.
+				pattern.nameOnly = glob.indexOf('/') < 0;
+				if (glob.startsWith("/")) {
+					glob = glob.substring(1);
+				}
+				
+				if (glob.length() > 0) {
+					pattern.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+					patterns.add(pattern);
+				}
+			}
+		}
+		
+		/**
+		 * Check whether a path matches any pattern.
+		 * @param abs Absolute path.
+		 * @param isDirectory Whether the path is a folder.
+		 * @return Whether the path matches.
+		 */
+		public boolean matches(Path abs, boolean isDirectory) {
+			if (patterns.isEmpty() || abs.getNameCount() == 0 || (base != null && !abs.startsWith(base))) {
+				return false;
+			}
+			
+			Path relative = base == null ? abs.subpath(0, abs.getNameCount()) : base.relativize(abs);
+			int n = relative.getNameCount();
+			
+			for (Pattern pattern : patterns) {
+				if (pattern.dirOnly && !isDirectory) {
+					continue;
+				}
+				
+				if (pattern.nameOnly) {
+					if (pattern.matcher.matches(abs.getFileName())) {
+						return true;
+					}
+				} else if (base != null) {
+					if (pattern.matcher.matches(relative)) {
+						return true;
+					}
+				} else {
+					// Try each trailing part of the path.
+					for (int i = 0; i < n; ++i) {
+						if (pattern.matcher.matches(relative.subpath(i, n))) {
+							return true;
+						}
+					}
+				}
+			}
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * A glob pattern of paths to skip.
+	 */
+	private static class Pattern {
+		// Matcher of the glob.
+		PathMatcher matcher;
+		
+		// Whether to match the file name only.
+		boolean nameOnly;
+		
+		// Whether to match folders only.
+		boolean dirOnly;
+	}
+}
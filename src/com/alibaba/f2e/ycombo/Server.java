@@ -0,0 +1,99 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * Class for serving combo requests from the client launcher with warm caches.
+ *
+ * A request consists of lines of the client working folder, the number of
+ * arguments and each argument. The response consists of console messages,
+ * and ends with a line of "[EXIT] " and the exit status.
+ */
+public class Server {
+	// Local port to listen.
+	private int port;
+	
+	/**
+	 * Create a new Server instance.
+	 * @param port Local port to listen.
+	 */
+	public Server(int port) {
+		this.port = port;
+	}
+	
+	/**
+	 * Serve requests one by one until the process is killed.
+	 */
+	public void serve() {
+		ServerSocket server = null;
+		
+		try {
+			server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		} catch (IOException e) {
+			App.exit(e);
+		}
+		
+		App.info("Serving at 127.0.0.1:" + port);
+		
+		while (true) {
+			try {
+				Socket socket = server.accept();
+				try {
+					handle(socket);
+				} finally {
+					socket.close();
+				}
+			} catch (IOException e) {
+				App.err("Broken request: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Serve a request.
+	 * @param socket The client connection.
+	 */
+	private void handle(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+		
+		String workdir = in.readLine();
+		String count = in.readLine();
+		
+		if (workdir == null || count == null) {
+			throw new EOFException("missing working folder or arguments");
+		}
+		
+		String[] args = null;
+		try {
+			args = new String[Integer.parseInt(count.trim(), 10)];
+		} catch (NumberFormatException e) {
+			throw new IOException("invalid number of arguments " + count);
+		}
+		
+		for (int i = 0; i < args.length; ++i) {
+			args[i] = in.readLine();
+			if (args[i] == null) {
+				throw new EOFException("missing arguments");
+			}
+		}
+		
+		App.capture();
+		int status;
+		try {
+			status = App.serve(args, new File(workdir));
+		} finally {
+			out.write(App.release());
+		}
+		
+		out.write("[EXIT] " + status + "\n");
+		out.flush();
+	}
+}
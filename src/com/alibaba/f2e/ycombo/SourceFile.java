@@ -8,23 +8,56 @@ package com.alibaba.f2e.ycombo;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 /**
  * Class for source file manipulation.
  */
 public class SourceFile {
-	// Cache binary data of source files by canonical path.
-	private HashMap<String, byte[]> binaryCache;
+	// Files at least this large are memory-mapped instead of read onto the heap, in bytes.
+	private static final long MAP_THRESHOLD = 1024 * 1024;
 	
-	// Cache dependencies of source files by canonical path.
-	private HashMap<String, ArrayList<String>> dependenceMap;
+	// Default size cap of cached binary data, in bytes.
+	private static final long BINARY_CACHE_SIZE = 256 * 1024 * 1024;
+	
+	// Cache binary data of source files excluding #require statements, and fragments
+	// compressed from them, by canonical path. Both count in the size cap.
+	private LruCache<String, Cached> sourceCache;
+	
+	// Locks of compressing source files by canonical path and compressor options, while compressing.
+	private ConcurrentHashMap<String, Object> fragmentLocks;
+	
+	// Cache dependencies of source files by interned ID of canonical path.
+	private DependencyGraph graph;
+	
+	// Modification time and size of cached source files by canonical path.
+	private ConcurrentHashMap<String, String> stamps;
 	
 	// RegExp pattern to match #require statement.
 	private Pattern PATTERN_REQUIRE;
 	
+	// Scanner to find #require statement without decoding, or null if the charset is not supported.
+	private RequireScanner scanner;
+	
+	// Resolver to locate required files.
+	private Resolver resolver;
+	
+	// Whether large files are memory-mapped.
+	private boolean mapping;
+	
+	// Pool to read required files ahead of travelling, or null if not reading ahead.
+	private ExecutorService prefetcher;
+	
+	// Files being read ahead by canonical path.
+	private ConcurrentHashMap<String, Future<?>> prefetching;
+	
+	// Timings and sizes of current run, or null if not recorded.
+	private Stats stats;
+	
 	// Root folder of required file.
 	private String root;
 	
@@ -38,8 +71,11 @@ public class SourceFile {
 	 */
 	public SourceFile(String root, String charset) {
 		// Initiation.
-		binaryCache = new HashMap<String, byte[]>();
-		dependenceMap = new HashMap<String, ArrayList<String>>();
+		sourceCache = new LruCache<String, Cached>(BINARY_CACHE_SIZE);
+		fragmentLocks = new ConcurrentHashMap<String, Object>();
+		graph = new DependencyGraph();
+		stamps = new ConcurrentHashMap<String, String>();
+		resolver = new Resolver();
 		
 		// Match "// #require <path>" or "// #require "path"" or "/* #require <path> */" or "/* #require "path" */".
 		PATTERN_REQUIRE = Pattern.compile("^\\s*/[/\\*]\\s#require\\s([\"<])([\\w\\-\\./]+)[\">](?:\\s\\*/)?\\s*$", Pattern.MULTILINE);
@@ -47,6 +83,70 @@ public class SourceFile {
 		locateRoot(root);
 		
 		this.charset = charset;
+		
+		scanner = RequireScanner.forCharset(charset, false);
+		mapping = true;
+	}
+	
+	/**
+	 * Set whether to stop finding #require statements at the first line of code.
+	 * It takes effect on UTF-8, US-ASCII and ISO-8859-1 encoded source files only.
+	 * @param strictHeader Whether #require statements are in the file header only.
+	 */
+	public void setStrictHeader(boolean strictHeader) {
+		scanner = RequireScanner.forCharset(charset, strictHeader);
+	}
+	
+	/**
+	 * Set the size cap of cached binary data and compressed fragments. Evicted files
+	 * are read and compressed again when needed, while their dependencies are always kept.
+	 * @param size Size cap in bytes.
+	 */
+	public void setCacheSize(long size) {
+		sourceCache = new LruCache<String, Cached>(size);
+	}
+	
+	/**
+	 * Get statistics of cached binary data.
+	 * @return The statistics message.
+	 */
+	public String getCacheStats() {
+		return "Source cache: " + sourceCache.hits() + " hits, " + sourceCache.misses() + " misses, "
+			+ sourceCache.evictions() + " evictions, " + sourceCache.size() / 1024 + "KB in memory";
+	}
+	
+	/**
+	 * Record time spent in reading source files and extracting dependencies.
+	 * @param stats The Stats instance, or null to stop recording.
+	 */
+	public void setStats(Stats stats) {
+		this.stats = stats;
+		
+		if (stats != null) {
+			stats.watch(sourceCache);
+		}
+	}
+	
+	/**
+	 * Read required files ahead in parallel as soon as they are found, so travelling
+	 * dependencies does not wait for each file in turn on slow file systems.
+	 * @param threads Number of files read in parallel, or 0 to read files only when travelled.
+	 */
+	public void setPrefetch(int threads) {
+		if (threads > 0) {
+			prefetcher = Executors.newFixedThreadPool(threads, ioThreadFactory());
+			prefetching = new ConcurrentHashMap<String, Future<?>>();
+		}
+	}
+	
+	/**
+	 * Set whether to memory-map large files instead of reading them onto the heap.
+	 * A mapped file cannot be saved by some editors on Windows, and reading it
+	 * after being truncated crashes, so long-running tasks should not map files.
+	 * @param mapping Whether large files are memory-mapped.
+	 */
+	public void setMapping(boolean mapping) {
+		this.mapping = mapping;
 	}
 	
 	/**
@@ -55,16 +155,10 @@ public class SourceFile {
 	 * @return Output queue with correct dependencies order.
 	 */
 	public ArrayList<String> combo(File seed) throws SourceFileException {
-		Stack<ArrayList<String>> tree = new Stack<ArrayList<String>>();
-		ArrayList<String> root = new ArrayList<String>();
 		ArrayList<String> output = new ArrayList<String>();
 		
-		// Construct the initial tree.
-		root.add(canonize(seed));
-		tree.add(root);
-		
 		// Travel the dependencies tree from the seed file.
-		travel(tree, new Stack<String>(), output);
+		travel(graph.intern(canonize(seed)), output);
 		
 		return output;
 	}
@@ -72,26 +166,107 @@ public class SourceFile {
 	/**
 	 * Get binary data of a source file.
 	 * @param path The canonical path of source file.
-	 * @return Source file data.
+	 * @return Slices of source file data between #require statements, which are free to read.
 	 */
-	public byte[] readBinary(String path) throws SourceFileException {
-		if (!binaryCache.containsKey(path)) {
+	public ByteBuffer[] readBinary(String path) throws SourceFileException {
+		Cached cached = sourceCache.get(path);
+		ByteBuffer[] slices = cached == null ? null : cached.slices;
+		
+		if (slices == null) {
 			try {
-				BufferedInputStream bf = new BufferedInputStream(new FileInputStream(new File(path)));
-				try {
-					byte[] data = new byte[bf.available()];
-					bf.read(data);
-					detectBOM(data, path);
-					binaryCache.put(path, extractDependencies(data, path));
-				} finally {
-					bf.close();
-				}
+				slices = read(path);
 			} catch (IOException e) {
 				App.exit(e);
 			}
 		}
 		
-		return binaryCache.get(path);
+		// Each caller reads the slices from their own positions.
+		ByteBuffer[] copy = new ByteBuffer[slices.length];
+		for (int i = 0; i < slices.length; ++i) {
+			copy[i] = slices[i].duplicate();
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * Read a source file and extract its dependencies.
+	 * @param path The canonical path of source file.
+	 * @return Slices of source file data between #require statements.
+	 */
+	private ByteBuffer[] read(String path) throws IOException, SourceFileException {
+		File f = new File(path);
+		stamps.put(path, stamp(f));
+		
+		long start = System.nanoTime();
+		ByteBuffer data = load(f);
+		long loaded = System.nanoTime();
+		
+		detectBOM(data, path);
+		ByteBuffer[] slices = extractDependencies(data, path);
+		sourceCache.put(path, new Cached(slices, data.limit()), data.limit());
+		
+		if (stats != null) {
+			stats.read(path, loaded - start, data.limit());
+			stats.extract(path, System.nanoTime() - loaded);
+		}
+		
+		if (prefetcher != null) {
+			prefetch(graph.get(graph.intern(path)));
+		}
+		
+		return slices;
+	}
+	
+	/**
+	 * Start reading dependencies not read yet in the background.
+	 * @param dependencies IDs of dependencies.
+	 */
+	private void prefetch(int[] dependencies) {
+		for (final int id : dependencies) {
+			final String path = graph.path(id);
+			
+			if (graph.get(id) != null || prefetching.containsKey(path)) {
+				continue;
+			}
+			
+			FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+				public void run() {
+					try {
+						if (graph.get(id) == null) {
+							read(path);
+						}
+					} catch (Exception e) {
+						// Errors are reported when the file is travelled, in combination order.
+					} finally {
+						prefetching.remove(path);
+					}
+				}
+			}, null);
+			
+			if (prefetching.putIfAbsent(path, task) == null) {
+				prefetcher.execute(task);
+			}
+		}
+	}
+	
+	/**
+	 * Create threads to read files, which are virtual threads where the JVM supports them.
+	 * @return The thread factory.
+	 */
+	private static ThreadFactory ioThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			};
+		}
 	}
 	
 	/**
@@ -101,15 +276,197 @@ public class SourceFile {
 	 * @return Source file content.
 	 */
 	public String readString(String path) throws SourceFileException {
-		return decode(readBinary(path), path);
+		ByteBuffer[] slices = readBinary(path);
+		int size = 0;
+		
+		for (ByteBuffer slice : slices) {
+			size += slice.remaining();
+		}
+		
+		ByteBuffer data = ByteBuffer.allocate(size);
+		for (ByteBuffer slice : slices) {
+			data.put(slice);
+		}
+		data.flip();
+		
+		return decode(data, path);
 	}
 	
 	/**
-	 * Get the canonical path of a file.
+	 * Load a file entirely, by memory-mapping if it is large.
+	 * @param f The file.
+	 * @return File data from position 0 to limit.
+	 */
+	private ByteBuffer load(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			
+			if (mapping && size >= MAP_THRESHOLD) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			
+			// Read until the end of file, which may differ from the size taken before.
+			ByteBuffer data = ByteBuffer.allocate((int) size + 1);
+			while (channel.read(data) != -1) {
+				if (!data.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(data.capacity() * 2);
+					data.flip();
+					larger.put(data);
+					data = larger;
+				}
+			}
+			data.flip();
+			
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Get the compressed fragment of a source file cached by previous seeds.
+	 * @param path The canonical path of source file.
+	 * @param options Signature of the compressor options.
+	 * @return The cached fragment, or null if the file has not been compressed with the options yet.
+	 */
+	public String readFragment(String path, String options) {
+		Cached cached = sourceCache.peek(path);
+		return cached == null ? null : cached.fragments.get(options);
+	}
+	
+	/**
+	 * Cache the compressed fragment of a source file for following seeds, along with
+	 * binary data of the file. Fragment of a file evicted or changed meanwhile is dropped.
+	 * @param path The canonical path of source file.
+	 * @param options Signature of the compressor options.
+	 * @param fragment The compressed fragment.
+	 */
+	public void cacheFragment(String path, String options, String fragment) {
+		Cached cached = sourceCache.peek(path);
+		
+		if (cached != null) {
+			synchronized (cached) {
+				// Fragments are strings of 2-byte chars.
+				if (cached.fragments.put(options, fragment) == null) {
+					cached.weight += fragment.length() * 2L;
+					sourceCache.resize(path, cached, cached.weight);
+				}
+			}
+		}
+		
+		// Seeds waiting for the lock find the fragment cached, and later seeds do not lock.
+		fragmentLocks.remove(options + "\n" + path);
+	}
+	
+	/**
+	 * Forget cached data of source files changed since they were read,
+	 * and required files not found, which may be created since.
+	 */
+	public void refresh() {
+		resolver.refresh();
+		
+		for (Map.Entry<String, String> entry : stamps.entrySet()) {
+			if (!entry.getValue().equals(stamp(new File(entry.getKey())))) {
+				invalidate(entry.getKey());
+			}
+		}
+	}
+	
+	/**
+	 * Forget cached data of a changed source file, which may be created or deleted.
+	 * @param path The canonical path of source file.
+	 */
+	public void invalidate(String path) {
+		resolver.invalidate(path);
+		stamps.remove(path);
+		sourceCache.remove(path);
+		
+		int id = graph.find(path);
+		if (id >= 0) {
+			graph.put(id, null);
+			graph.clearClosures(id);
+		}
+		
+		// Files requiring a deleted file are read again to report it missing.
+		if (id >= 0 && !new File(path).exists()) {
+			for (int dependent : graph.dependents(id)) {
+				invalidate(graph.path(dependent));
+			}
+		}
+	}
+	
+	/**
+	 * Get the root folder of required files.
+	 * @return The canonical path of root folder.
+	 */
+	public String getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Get the lock to hold while compressing a source file.
+	 * @param path The canonical path of source file.
+	 * @param options Signature of the compressor options.
+	 * @return The lock object.
+	 */
+	public Object lockFragment(String path, String options) {
+		String key = options + "\n" + path;
+		Object lock = fragmentLocks.get(key);
+		
+		if (lock == null) {
+			Object created = new Object();
+			lock = fragmentLocks.putIfAbsent(key, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		
+		return lock;
+	}
+	
+	/**
+	 * Detect the default root folder for a working folder.
+	 * @param pwd The working folder.
+	 * @return The canonical path of root folder.
+	 */
+	public static String detectRoot(File pwd) {
+		File f = pwd.getAbsoluteFile();
+		String[] l = null;
+		
+		// Detect intl-style/xxx/htdocs by finding "js" and "css" in sub folders.
+		do {
+			f = f.getParentFile();
+			if (f == null) {
+				break;
+			}
+			
+			l = f.list(new FilenameFilter() {
+				private Pattern pattern = Pattern.compile("^(?:js|css)$");
+				
+				public boolean accept(File dir, String name) {
+					return pattern.matcher(name).matches();
+				}
+			});
+		} while (l.length != 2);
+		
+		// If present, use intl-style/xxx/htdocs as root folder for Alibaba.
+		if (f != null) {
+			return canonize(f);
+		// Else use present working folder as root folder.
+		} else {
+			return canonize(pwd);
+		}
+	}
+	
+	/**
+	 * Get the canonical path of a file, which is the key of the file everywhere.
 	 * @param f The file.
 	 * @return The canonical path.
 	 */
-	private String canonize(File f) {
+	static String canonize(File f) {
 		String path = null;
 		
 		try {
@@ -121,17 +478,35 @@ public class SourceFile {
 		return path;
 	}
 	
+	/**
+	 * Get the modification time and size of a source file when it was read.
+	 * @param path The canonical path of source file.
+	 * @return The stamp, or null if the file has not been read.
+	 */
+	public String readStamp(String path) {
+		return stamps.get(path);
+	}
+	
+	/**
+	 * Get the modification time and size of a file.
+	 * @param f The file.
+	 * @return The stamp.
+	 */
+	public static String stamp(File f) {
+		return f.lastModified() + ":" + f.length();
+	}
+	
 	/**
 	 * Decode binary data to string.
 	 * @param data Binary data of file.
 	 * @param path Path of file.
 	 * @return The decoded string.
 	 */
-	private String decode(byte[] data, String path) throws SourceFileException {
+	private String decode(ByteBuffer data, String path) throws SourceFileException {
 		String content = null;
 		
 		try {
-			content = Charset.forName(charset).newDecoder().decode(ByteBuffer.wrap(data)).toString();
+			content = Charset.forName(charset).newDecoder().decode(data.duplicate()).toString();
 		} catch (CharacterCodingException e) {
 			throw new SourceFileException("Cannot read " + path + " as " + charset + " encoded file");
 		}
@@ -144,14 +519,14 @@ public class SourceFile {
 	 * @param data Binary data of source file.
 	 * @param path The canonical path of source file.
 	 */
-	private void detectBOM(byte[] data, String path) throws SourceFileException {
-		if (data.length > 2 && (byte)(data[0] ^ 0xEF) == 0 && (byte)(data[1] ^ 0xBB) == 0 && (byte)(data[2] ^ 0xBF) == 0) {
+	private void detectBOM(ByteBuffer data, String path) throws SourceFileException {
+		if (data.limit() > 2 && (byte)(data.get(0) ^ 0xEF) == 0 && (byte)(data.get(1) ^ 0xBB) == 0 && (byte)(data.get(2) ^ 0xBF) == 0) {
 			throw new SourceFileException("UTF8 BOM was found in " + path);
 		}
-		else if (data.length > 1 && (byte)(data[0] ^ 0xFE) == 0 && (byte)(data[1] ^ 0xFF) == 0) {
+		else if (data.limit() > 1 && (byte)(data.get(0) ^ 0xFE) == 0 && (byte)(data.get(1) ^ 0xFF) == 0) {
 			throw new SourceFileException("UTF16BE BOM was found in " + path);
 		}
-		else if (data.length > 1 && (byte)(data[0] ^ 0xFF) == 0 && (byte)(data[1] ^ 0xFE) == 0) {
+		else if (data.limit() > 1 && (byte)(data.get(0) ^ 0xFF) == 0 && (byte)(data.get(1) ^ 0xFE) == 0) {
 			throw new SourceFileException("UTF16LE BOM was found in " + path);
 		}
 	}
@@ -160,59 +535,151 @@ public class SourceFile {
 	 * Extract dependencies information from input file.
 	 * @param data Binary data of input file.
 	 * @param path Path of input file.
-	 * @return Binary data of input file that excludes the dependencies comments.
+	 * @return Slices of binary data of input file around the dependencies comments.
+	 */
+	ByteBuffer[] extractDependencies(ByteBuffer data, String path) throws SourceFileException {
+		if (scanner == null) {
+			return extractDependenciesByPattern(data, path);
+		}
+		
+		if (!scanner.isValid(data)) {
+			throw new SourceFileException("Cannot read " + path + " as " + charset + " encoded file");
+		}
+		
+		ArrayList<RequireScanner.Match> matches = scanner.scan(data);
+		int[] dependencies = new int[matches.size()];
+		
+		for (int i = 0; i < dependencies.length; ++i) {
+			RequireScanner.Match m = matches.get(i);
+			dependencies[i] = graph.intern(require(m.bracket == '<', m.path, path));
+		}
+		
+		graph.put(graph.intern(path), dependencies);
+		
+		// Remove dependencies comments from input file by slicing bytes around them.
+		ArrayList<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+		int from = 0;
+		
+		for (RequireScanner.Match m : matches) {
+			if (m.start > from) {
+				slices.add(slice(data, from, m.start));
+			}
+			from = m.end;
+		}
+		if (data.limit() > from) {
+			slices.add(slice(data, from, data.limit()));
+		}
+		
+		return slices.toArray(new ByteBuffer[slices.size()]);
+	}
+	
+	/**
+	 * Extract dependencies information from input file in charsets not supported by RequireScanner.
+	 * @param data Binary data of input file.
+	 * @param path Path of input file.
+	 * @return Slices of binary data of input file around the dependencies comments.
 	 */
-	private byte[] extractDependencies(byte[] data, String path) throws SourceFileException {
-		ArrayList<String> dependencies = new ArrayList<String>();
+	private ByteBuffer[] extractDependenciesByPattern(ByteBuffer data, String path) throws SourceFileException {
+		ArrayList<Integer> found = new ArrayList<Integer>();
 		Matcher m = PATTERN_REQUIRE.matcher(decode(data, path));
 		
 		while (m.find()) {
-			// Decide which root path to use.
-			// Path wrapped in <> is related to root path.
-			// Path wrapped in "" is related to parent folder of the source file.
-			String root = null;
-			
-			if (m.group(1).equals("<")) {
-				root = this.root;
-			} else {
-				root = new File(path).getParent();
-			}
-			
-			// Get path of required file.
-			String required = m.group(2);
-			
-			File f = new File(root, required);
-			
-			if (f.exists()) {
-				dependencies.add(canonize(f));
-			} else {
-				throw new SourceFileException("Cannot find required file " + required + " in " + path);
-			}
+			found.add(graph.intern(require(m.group(1).equals("<"), m.group(2), path)));
 		}
 		
-		dependenceMap.put(path, dependencies);
+		int[] dependencies = new int[found.size()];
+		for (int i = 0; i < dependencies.length; ++i) {
+			dependencies[i] = found.get(i);
+		}
+		
+		graph.put(graph.intern(path), dependencies);
 		
 		// Remove dependencies comments from input file.
 		try {
-			data = m.replaceAll("").getBytes(charset);
+			data = ByteBuffer.wrap(m.replaceAll("").getBytes(charset));
 		} catch (UnsupportedEncodingException e) {
 			App.exit(e);
 		}
 		
-		return data;
+		return new ByteBuffer[] { data };
+	}
+	
+	/**
+	 * Get a slice of binary data.
+	 * @param data Binary data from position 0 to limit.
+	 * @param start Start position of the slice.
+	 * @param end End position of the slice.
+	 * @return The slice sharing content with data.
+	 */
+	private static ByteBuffer slice(ByteBuffer data, int start, int end) {
+		ByteBuffer slice = data.duplicate();
+		
+		slice.limit(end);
+		slice.position(start);
+		
+		return slice.slice();
+	}
+	
+	/**
+	 * Locate a required file.
+	 * @param fromRoot Whether the path is wrapped in <>.
+	 * @param required Path of required file.
+	 * @param path Path of input file.
+	 * @return Canonical path of required file.
+	 */
+	private String require(boolean fromRoot, String required, String path) throws SourceFileException {
+		// Decide which root path to use.
+		// Path wrapped in <> is related to root path.
+		// Path wrapped in "" is related to parent folder of the source file.
+		String root = null;
+		
+		if (fromRoot) {
+			root = this.root;
+		} else {
+			root = new File(path).getParent();
+		}
+		
+		String resolved = resolver.resolve(root, required);
+		
+		if (resolved == null) {
+			throw new SourceFileException("Cannot find required file " + required + " in " + path);
+		}
+		
+		return resolved;
 	}
 	
 	/**
 	 * Get dependencies of a source file.
-	 * @param path The canonical path of source file.
-	 * @return Path of dependencies. 
+	 * @param id Interned ID of the canonical path of source file.
+	 * @return IDs of dependencies. 
 	 */
-	private ArrayList<String> getDependencies(String path) throws SourceFileException {
-		if (!dependenceMap.containsKey(path)) {
-			readBinary(path);
+	private int[] getDependencies(int id) throws SourceFileException {
+		int[] dependencies = graph.get(id);
+		
+		if (dependencies == null) {
+			String path = graph.path(id);
+			
+			// Wait for the file being read ahead instead of reading it again.
+			Future<?> pending = prefetching == null ? null : prefetching.get(path);
+			if (pending != null) {
+				try {
+					pending.get();
+				} catch (InterruptedException e) {
+					App.exit(e);
+				} catch (ExecutionException e) {
+					App.exit(e);
+				}
+			}
+			
+			// A file failed to read ahead is read again to report the error.
+			dependencies = graph.get(id);
+			if (dependencies == null) {
+				readBinary(path);
+				dependencies = graph.get(id);
+			}
 		}
 		
-		return dependenceMap.get(path);
+		return dependencies;
 	}
 	
 	/**
@@ -222,33 +689,7 @@ public class SourceFile {
 	private void locateRoot(String root) {
 		// Locate default root folder.
 		if (root == null) {
-			File pwd = new File(".").getAbsoluteFile();
-			File f = pwd;
-			String[] l = null;
-	
-			// Detect intl-style/xxx/htdocs by finding "js" and "css" in sub folders.
-			do {
-				f = f.getParentFile();
-				if (f == null) {
-					break;
-				}
-				
-				l = f.list(new FilenameFilter() {
-					private Pattern pattern = Pattern.compile("^(?:js|css)$");
-	
-					public boolean accept(File dir, String name) {
-						return pattern.matcher(name).matches();
-					}
-				});
-			} while (l.length != 2);
-			
-			// If present, use intl-style/xxx/htdocs as root folder for Alibaba.
-			if (f != null) {
-				this.root = canonize(f);
-			// Else use present working folder as root folder.
-			} else {
-				this.root = canonize(pwd);
-			}
+			this.root = detectRoot(new File("."));
 		// Use user-specified root folder.
 		} else {
 			File f = new File(root);
@@ -262,44 +703,185 @@ public class SourceFile {
 	
 	/**
 	 * Travel dependencies tree by DFS and Post-Order algorithm.
-	 * @param tree The initial tree which contains root node only.
-	 * @param footprint The footprint of the traversal.
+	 * The traversal uses explicit stacks, so deep dependencies chains don't overflow the call stack.
+	 * Nodes are compared by interned ID, and paths are looked up only for the output queue.
+	 * Sub trees whose combination order is cached are merged instead of travelled again.
+	 * @param root ID of the root node.
 	 * @param output Output queue of combined files.
 	 */
-	private void travel(Stack<ArrayList<String>> tree, Stack<String> footprint, ArrayList<String> output) throws SourceFileException {
-		for (String node : tree.peek()) {
+	private void travel(int root, ArrayList<String> output) throws SourceFileException {
+		int[] closure = graph.getClosure(root);
+		
+		if (closure == null) {
+			closure = travel(root);
+		}
+		
+		for (int id : closure) {
+			output.add(graph.path(id));
+		}
+	}
+	
+	/**
+	 * Travel dependencies tree from a node whose combination order is not cached.
+	 * @param root ID of the root node.
+	 * @return IDs of the root node and its dependencies in combination order.
+	 */
+	private int[] travel(int root) throws SourceFileException {
+		// Sub nodes of each level, and index of the next one to travel.
+		int[][] tree = new int[16][];
+		int[] next = new int[16];
+		
+		// The footprint of the traversal, and the same nodes for fast lookup.
+		int[] footprint = new int[16];
+		BitSet steps = new BitSet(graph.size());
+		
+		// Nodes added to output queue, which always include all dependencies of each node.
+		BitSet visited = new BitSet(graph.size());
+		int[] output = new int[16];
+		int length = 0;
+		
+		// Nodes merged into the order of a node, which is cleared after each merge.
+		BitSet seen = new BitSet(graph.size());
+		
+		// Number of levels, which is one more than the length of footprint.
+		int depth = 1;
+		tree[0] = new int[] { root };
+		
+		while (true) {
+			int level = depth - 1;
+			
+			if (next[level] == tree[level].length) {
+				// Clean visited nodes.
+				--depth;
+				
+				if (depth == 0) {
+					break;
+				}
+				
+				// Move backward.
+				int node = footprint[depth - 1];
+				steps.clear(node);
+				
+				// Add first visited node to output queue.
+				if (length == output.length) {
+					output = Arrays.copyOf(output, length * 2);
+				}
+				visited.set(node);
+				output[length++] = node;
+				
+				cacheClosure(node, tree[level], seen);
+				continue;
+			}
+			
+			int node = tree[level][next[level]++];
+			
 			// Detect circular dependences by looking back footprint.
-			if (footprint.contains(node)) {
+			if (steps.get(node)) {
 				String msg = "Circular dependences was found\n";
-				for (String path : footprint) {
-					msg += "    " + path + " ->\n";
+				for (int i = 0; i < depth - 1; ++i) {
+					msg += "    " + graph.path(footprint[i]) + " ->\n";
 				}
-				msg += "    " + node;
+				msg += "    " + graph.path(node);
 				throw new SourceFileException(msg);
 			}
 			
 			// Skip visited node.
-			if (output.contains(node)) {
+			if (visited.get(node)) {
 				continue;
 			}
 			
-			// Move forward.
-			footprint.push(node);
+			// Merge the cached order of a sub tree. Visited nodes come with all their
+			// dependencies, so skipping them keeps the order of travelling the sub tree.
+			int[] closure = graph.getClosure(node);
+			if (closure != null) {
+				if (length + closure.length > output.length) {
+					output = Arrays.copyOf(output, Math.max(length * 2, length + closure.length));
+				}
+				for (int id : closure) {
+					if (!visited.get(id)) {
+						visited.set(id);
+						output[length++] = id;
+					}
+				}
+				continue;
+			}
 			
-			// Add sub nodes.
-			tree.push(getDependencies(node));
+			if (depth == tree.length) {
+				tree = Arrays.copyOf(tree, depth * 2);
+				next = Arrays.copyOf(next, depth * 2);
+				footprint = Arrays.copyOf(footprint, depth * 2);
+			}
 			
-			// Travel sub nodes.
-			travel(tree, footprint, output);
+			// Move forward.
+			footprint[depth - 1] = node;
+			steps.set(node);
 			
-			// Clean visited nodes.
-			tree.pop();
+			// Add sub nodes.
+			tree[depth] = getDependencies(node);
+			next[depth] = 0;
+			++depth;
+		}
+		
+		return Arrays.copyOf(output, length);
+	}
+	
+	/**
+	 * Cache the combination order of a node travelled, if all its dependencies have one cached.
+	 * @param node ID of the node.
+	 * @param dependencies IDs of dependencies of the node.
+	 * @param seen Empty bit set to mark nodes merged.
+	 */
+	private void cacheClosure(int node, int[] dependencies, BitSet seen) {
+		int size = 1;
+		
+		for (int dependency : dependencies) {
+			int[] closure = graph.getClosure(dependency);
 			
-			// Move backward.
-			footprint.pop();
+			if (closure == null) {
+				return;
+			}
+			size += closure.length;
+		}
+		
+		// The order is the same as travelling from the node alone.
+		int[] merged = new int[size];
+		int length = 0;
+		
+		for (int dependency : dependencies) {
+			for (int id : graph.getClosure(dependency)) {
+				if (!seen.get(id)) {
+					seen.set(id);
+					merged[length++] = id;
+				}
+			}
+		}
+		
+		for (int i = 0; i < length; ++i) {
+			seen.clear(merged[i]);
+		}
+		merged[length++] = node;
+		
+		graph.putClosure(node, length == size ? merged : Arrays.copyOf(merged, length));
+	}
+	
+	/**
+	 * Binary data of a source file, cached with fragments compressed from it.
+	 */
+	private static class Cached {
+		// Slices of source file data between #require statements.
+		ByteBuffer[] slices;
+		
+		// Compressed fragments by signature of the compressor options.
+		ConcurrentHashMap<String, String> fragments;
+		
+		// Size of binary data and fragments in bytes.
+		long weight;
+		
+		public Cached(ByteBuffer[] slices, long weight) {
+			this.slices = slices;
+			this.weight = weight;
 			
-			// Add first visited node to output queue.
-			output.add(node);
+			fragments = new ConcurrentHashMap<String, String>();
 		}
 	}
 }
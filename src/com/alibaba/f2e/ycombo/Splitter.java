@@ -0,0 +1,343 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class for splitting files required by many seeds into shared bundles.
+ *
+ * Files required by at least a given number of seeds of the same type are left out of
+ * output files of seeds, and combined into shared bundles in the root folder. Files are
+ * grouped by the exact set of seeds requiring them, so a page loads a bundle only if it
+ * requires every file of it, and never downloads more bytes than without splitting.
+ * Files required by a shared file are required by a wider set of seeds, so they are
+ * shared too, and pages loading bundles of wider sets first keep the dependencies order.
+ * A CSS file is only shared if it comes before every file not shared in each seed, and
+ * the bundles of each CSS seed keep the order of its files, so later rules still win.
+ */
+public class Splitter {
+	// Name of shared bundles without number and extension name.
+	static final String SHARED_NAME = "shared";
+	
+	// Name of the chunk manifest.
+	static final String CHUNKS_NAME = "chunks.json";
+	
+	// Combiner instance to combine seeds.
+	private Combiner combiner;
+	
+	// Least number of seeds requiring a file to share it.
+	private int minSeeds;
+	
+	/**
+	 * Class for a shared bundle, holding files required by the same set of seeds.
+	 */
+	private static class Bundle {
+		// Type of files.
+		String type;
+		
+		// Seeds loading the bundle.
+		Set<File> seeds;
+		
+		// Canonical path of files in combination order.
+		LinkedHashSet<String> files = new LinkedHashSet<String>();
+		
+		// The bundle file, or null if not written.
+		File target;
+	}
+	
+	/**
+	 * Create a new Splitter instance.
+	 * @param combiner The combiner instance.
+	 * @param minSeeds Least number of seeds requiring a file to share it.
+	 */
+	public Splitter(Combiner combiner, int minSeeds) {
+		this.combiner = combiner;
+		this.minSeeds = minSeeds;
+	}
+	
+	/**
+	 * Find files shared by seeds, and write shared bundles and the chunk manifest.
+	 * Following seeds combined by the combiner leave shared files out.
+	 * @param found Seed files, which may be still being found.
+	 * @return Seed files found, in path order.
+	 */
+	public ArrayList<File> split(Iterable<File> found) {
+		ArrayList<File> seeds = new ArrayList<File>();
+		for (File seed : found) {
+			seeds.add(seed);
+		}
+		
+		// Seeds are found in parallel, so they are sorted to keep shared bundles the same between runs.
+		Collections.sort(seeds);
+		
+		LinkedHashMap<File, ArrayList<String>> combos = new LinkedHashMap<File, ArrayList<String>>();
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		
+		// Shared files are counted before leaving any file out.
+		combiner.setShared(null);
+		
+		for (File seed : seeds) {
+			if (combiner.type(seed) == null) {
+				continue;
+			}
+			
+			try {
+				ArrayList<String> files = combiner.sourceFile.combo(seed);
+				combos.put(seed, files);
+				
+				for (String path : files) {
+					Integer n = counts.get(path);
+					counts.put(path, n == null ? 1 : n + 1);
+				}
+			} catch (SourceFileException e) {
+				// The seed fails again when it is combined, which reports the error.
+			}
+		}
+		
+		HashSet<String> candidates = new HashSet<String>();
+		for (Map.Entry<String, Integer> e : counts.entrySet()) {
+			if (e.getValue() >= minSeeds) {
+				candidates.add(e.getKey());
+			}
+		}
+		
+		ArrayList<Bundle> bundles = keepCascade(combos, candidates);
+		
+		HashSet<String> shared = new HashSet<String>();
+		HashSet<File> broken = new HashSet<File>();
+		HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+		File root = new File(combiner.sourceFile.getRoot());
+		
+		for (Bundle bundle : bundles) {
+			// Bundles are numbered in loading order, which is the same between runs.
+			int n = numbers.containsKey(bundle.type) ? numbers.get(bundle.type) + 1 : 1;
+			numbers.put(bundle.type, n);
+			
+			// Files of a bundle left in output files of seeds are loaded after following bundles,
+			// so following bundles of the same seeds are left as well.
+			if (!Collections.disjoint(bundle.seeds, broken)) {
+				broken.addAll(bundle.seeds);
+				continue;
+			}
+			
+			File target = new File(root, SHARED_NAME + "." + n + "." + bundle.type);
+			App.info("Sharing " + bundle.files.size() + " files of " + bundle.seeds.size() + " seeds in " + target.getPath());
+			
+			try {
+				combiner.write(new ArrayList<String>(bundle.files), bundle.type, target, null);
+			} catch (Exception ex) {
+				// Files of a failed bundle stay in output files of seeds, which fail the same way
+				// and keep their previous output, and pages are not pointed at the missing bundle.
+				App.err(ex.getMessage());
+				App.err("Failed to write " + target.getName());
+				broken.addAll(bundle.seeds);
+				continue;
+			}
+			
+			bundle.target = target;
+			shared.addAll(bundle.files);
+		}
+		
+		combiner.setShared(shared);
+		writeChunks(root, combos, bundles);
+		
+		return seeds;
+	}
+	
+	/**
+	 * Group shared files by the set of seeds requiring them.
+	 * @param combos Source files of each seed in combination order.
+	 * @param candidates Canonical path of files to share.
+	 * @return Bundles in loading order, where bundles of wider sets of seeds come first.
+	 */
+	private ArrayList<Bundle> group(Map<File, ArrayList<String>> combos, Set<String> candidates) {
+		HashMap<String, TreeSet<File>> users = new HashMap<String, TreeSet<File>>();
+		
+		for (Map.Entry<File, ArrayList<String>> e : combos.entrySet()) {
+			for (String path : e.getValue()) {
+				if (candidates.contains(path)) {
+					if (!users.containsKey(path)) {
+						users.put(path, new TreeSet<File>());
+					}
+					users.get(path).add(e.getKey());
+				}
+			}
+		}
+		
+		// Files of each seed are in combination order, and so are files of each bundle
+		// kept in the order they are first met.
+		LinkedHashMap<Set<File>, Bundle> bundles = new LinkedHashMap<Set<File>, Bundle>();
+		
+		for (Map.Entry<File, ArrayList<String>> e : combos.entrySet()) {
+			for (String path : e.getValue()) {
+				if (candidates.contains(path)) {
+					Bundle bundle = bundles.get(users.get(path));
+					
+					if (bundle == null) {
+						bundle = new Bundle();
+						bundle.type = combiner.type(e.getKey());
+						bundle.seeds = users.get(path);
+						bundles.put(bundle.seeds, bundle);
+					}
+					
+					bundle.files.add(path);
+				}
+			}
+		}
+		
+		ArrayList<Bundle> list = new ArrayList<Bundle>(bundles.values());
+		
+		// Every seed requiring a file requires the files it requires, so they are in bundles
+		// of wider sets. The sort is stable, which keeps bundles of the same size in order.
+		Collections.sort(list, new Comparator<Bundle>() {
+			public int compare(Bundle a, Bundle b) {
+				return b.seeds.size() - a.seeds.size();
+			}
+		});
+		
+		return list;
+	}
+	
+	/**
+	 * Leave out of shared CSS files those which would move in any CSS seed. Pages load shared
+	 * bundles first, so a file following a file not shared, or loaded in a bundle before files
+	 * it used to follow, would move ahead of rules it used to override. Leaving out a file
+	 * changes bundles of other seeds, so seeds are checked again until nothing changes.
+	 * @param combos Source files of each seed in combination order.
+	 * @param candidates Canonical path of files to share, which is updated.
+	 * @return Bundles of files left to share, in loading order.
+	 */
+	private ArrayList<Bundle> keepCascade(Map<File, ArrayList<String>> combos, Set<String> candidates) {
+		while (true) {
+			boolean changed = false;
+			
+			for (Map.Entry<File, ArrayList<String>> e : combos.entrySet()) {
+				if (!"css".equals(combiner.type(e.getKey()))) {
+					continue;
+				}
+				
+				boolean prefix = true;
+				for (String path : e.getValue()) {
+					if (!candidates.contains(path)) {
+						prefix = false;
+					} else if (!prefix) {
+						candidates.remove(path);
+						changed = true;
+					}
+				}
+			}
+			
+			ArrayList<Bundle> bundles = group(combos, candidates);
+			
+			for (Map.Entry<File, ArrayList<String>> e : combos.entrySet()) {
+				if (!"css".equals(combiner.type(e.getKey()))) {
+					continue;
+				}
+				
+				// Shared files are a prefix of files of the seed, which bundles must load in the same order.
+				Iterator<String> loaded = loaded(e.getKey(), bundles).iterator();
+				boolean moved = false;
+				
+				for (String path : e.getValue()) {
+					if (!candidates.contains(path)) {
+						break;
+					}
+					
+					if (moved || !path.equals(loaded.next())) {
+						candidates.remove(path);
+						moved = changed = true;
+					}
+				}
+			}
+			
+			if (!changed) {
+				return bundles;
+			}
+		}
+	}
+	
+	/**
+	 * Get files a page loads from shared bundles, in loading order.
+	 * @param seed The seed file of the page.
+	 * @param bundles All bundles in loading order.
+	 * @return Canonical path of files.
+	 */
+	private static ArrayList<String> loaded(File seed, List<Bundle> bundles) {
+		ArrayList<String> files = new ArrayList<String>();
+		
+		for (Bundle bundle : bundles) {
+			if (bundle.seeds.contains(seed)) {
+				files.addAll(bundle.files);
+			}
+		}
+		
+		return files;
+	}
+	
+	/**
+	 * Write the chunk manifest, which lists the files each page loads in order.
+	 * @param root The root folder.
+	 * @param combos Source files of each seed in combination order.
+	 * @param bundles All bundles in loading order, of which those written are listed.
+	 */
+	private void writeChunks(final File root, final Map<File, ArrayList<String>> combos, final List<Bundle> bundles) {
+		File file = new File(root, CHUNKS_NAME);
+		
+		try {
+			AtomicFile.write(file, new AtomicFile.Content() {
+				public void write(OutputStream stream) throws IOException {
+					Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+					out.write("{");
+					
+					boolean first = true;
+					for (Map.Entry<File, ArrayList<String>> e : combos.entrySet()) {
+						out.write((first ? "" : ",") + "\n  " + Stats.quote(relative(root, combiner.output(e.getKey()))) + ": [");
+						
+						for (Bundle bundle : bundles) {
+							if (bundle.target != null && bundle.seeds.contains(e.getKey())) {
+								out.write(Stats.quote(relative(root, bundle.target)) + ", ");
+							}
+						}
+						
+						out.write(Stats.quote(relative(root, combiner.output(e.getKey()))) + "]");
+						first = false;
+					}
+					
+					out.write("\n}\n");
+					out.flush();
+				}
+			});
+		} catch (IOException e) {
+			App.err("Cannot write chunk manifest " + file.getPath());
+		}
+	}
+	
+	/**
+	 * Get the path of a file related to the root folder.
+	 * @param root The root folder.
+	 * @param f The file.
+	 * @return The related path separated by "/", or the absolute path if outside the root folder.
+	 */
+	private static String relative(File root, File f) {
+		String prefix = root.getAbsolutePath() + File.separator;
+		String path = null;
+		
+		try {
+			path = f.getCanonicalPath();
+		} catch (IOException e) {
+			path = f.getAbsolutePath();
+		}
+		
+		if (path.startsWith(prefix)) {
+			path = path.substring(prefix.length());
+		}
+		
+		return path.replace(File.separatorChar, '/');
+	}
+}
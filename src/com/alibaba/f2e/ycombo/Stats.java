@@ -0,0 +1,509 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class for collecting timings, sizes and cache hit rates of a run.
+ *
+ * Time is recorded for each phase: finding seeds, reading and extracting dependencies
+ * of source files, refining them, and writing output files. Records are saved as JSON,
+ * or as CSV if the file name ends with ".csv".
+ */
+public class Stats {
+	// Phases of a run.
+	public static final int FIND = 0, READ = 1, EXTRACT = 2, REFINE = 3, WRITE = 4;
+	
+	// Names of phases.
+	private static final String[] PHASES = { "find", "read", "extract", "refine", "write" };
+	
+	// Columns of CSV file.
+	private static final String CSV_HEADER = "kind,name,status,count,ms,read_ms,extract_ms,refine_ms,write_ms,in,out,hits,misses,evictions";
+	
+	// The file to save records.
+	private File file;
+	
+	// Start time of the run, in nanoseconds.
+	private long start;
+	
+	// Time spent in each phase, in nanoseconds.
+	private AtomicLong[] nanos;
+	
+	// Number of times each phase is entered.
+	private AtomicLong[] counts;
+	
+	// Records of files by canonical path.
+	private ConcurrentHashMap<String, FileRecord> files;
+	
+	// Records of seeds in the order finished.
+	private ConcurrentLinkedQueue<SeedRecord> seeds;
+	
+	// Counters of fragment cache and disk cache.
+	private AtomicLong fragmentHits, fragmentMisses, diskHits, diskMisses;
+	
+	// Source cache, and its counters when the run starts.
+	private LruCache<?, ?> sourceCache;
+	private long sourceHits, sourceMisses, sourceEvictions;
+	
+	// Whether some record is made since last saving.
+	private volatile boolean dirty;
+	
+	/**
+	 * Create a new Stats instance, and start timing the run.
+	 * @param file The file to save records.
+	 */
+	public Stats(File file) {
+		this.file = file;
+		
+		start = System.nanoTime();
+		nanos = new AtomicLong[PHASES.length];
+		counts = new AtomicLong[PHASES.length];
+		for (int i = 0; i < PHASES.length; ++i) {
+			nanos[i] = new AtomicLong();
+			counts[i] = new AtomicLong();
+		}
+		
+		files = new ConcurrentHashMap<String, FileRecord>();
+		seeds = new ConcurrentLinkedQueue<SeedRecord>();
+		
+		fragmentHits = new AtomicLong();
+		fragmentMisses = new AtomicLong();
+		diskHits = new AtomicLong();
+		diskMisses = new AtomicLong();
+		
+		dirty = true;
+	}
+	
+	/**
+	 * Get the file to save records.
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Track hit rates of the source cache from now on.
+	 * @param cache The source cache.
+	 */
+	public void watch(LruCache<?, ?> cache) {
+		sourceCache = cache;
+		sourceHits = cache.hits();
+		sourceMisses = cache.misses();
+		sourceEvictions = cache.evictions();
+	}
+	
+	/**
+	 * Record time spent in a phase.
+	 * @param phase The phase.
+	 * @param time Time spent, in nanoseconds.
+	 */
+	public void add(int phase, long time) {
+		nanos[phase].addAndGet(time);
+		counts[phase].incrementAndGet();
+		dirty = true;
+	}
+	
+	/**
+	 * Record reading a source file.
+	 * @param path Canonical path of the file.
+	 * @param time Time spent, in nanoseconds.
+	 * @param bytes Size of the file.
+	 */
+	public void read(String path, long time, long bytes) {
+		add(READ, time);
+		
+		FileRecord r = file(path);
+		synchronized (r) {
+			r.readNanos += time;
+			r.bytesIn = bytes;
+			++r.reads;
+		}
+	}
+	
+	/**
+	 * Record extracting dependencies of a source file.
+	 * @param path Canonical path of the file.
+	 * @param time Time spent, in nanoseconds.
+	 */
+	public void extract(String path, long time) {
+		add(EXTRACT, time);
+		
+		FileRecord r = file(path);
+		synchronized (r) {
+			r.extractNanos += time;
+		}
+	}
+	
+	/**
+	 * Record refining a source file.
+	 * @param path Canonical path of the file.
+	 * @param time Time spent, in nanoseconds.
+	 * @param chars Length of the refined fragment.
+	 * @param fromDisk Whether the fragment is taken from the disk cache.
+	 */
+	public void refine(String path, long time, long chars, boolean fromDisk) {
+		add(REFINE, time);
+		fragmentMisses.incrementAndGet();
+		
+		FileRecord r = file(path);
+		synchronized (r) {
+			r.refineNanos += time;
+			r.charsOut = chars;
+			r.refined = fromDisk ? "disk-cache" : "refined";
+		}
+	}
+	
+	/**
+	 * Record reusing a fragment refined by previous seeds.
+	 */
+	public void reuse() {
+		fragmentHits.incrementAndGet();
+		dirty = true;
+	}
+	
+	/**
+	 * Record looking up the disk cache.
+	 * @param hit Whether the fragment is found.
+	 */
+	public void disk(boolean hit) {
+		(hit ? diskHits : diskMisses).incrementAndGet();
+		dirty = true;
+	}
+	
+	/**
+	 * Start recording a seed.
+	 * @param seed The seed file.
+	 * @return The record to fill.
+	 */
+	public SeedRecord begin(File seed) {
+		SeedRecord r = new SeedRecord();
+		
+		r.path = seed.getAbsolutePath();
+		r.start = System.nanoTime();
+		dirty = true;
+		r.status = "failed";
+		
+		return r;
+	}
+	
+	/**
+	 * Finish recording a seed.
+	 * @param r The record.
+	 * @param output The output file.
+	 */
+	public void end(SeedRecord r, File output) {
+		r.nanos = System.nanoTime() - r.start;
+		r.bytesOut = output.length();
+		
+		if (r.combined != null) {
+			r.files = r.combined.size();
+			for (String path : r.combined) {
+				FileRecord f = files.get(path);
+				if (f != null) {
+					r.bytesIn += f.bytesIn;
+				}
+			}
+		}
+		
+		add(WRITE, r.writeNanos);
+		r.combined = null;
+		seeds.add(r);
+	}
+	
+	/**
+	 * Save records, unless nothing is recorded since last saving or the file is the same.
+	 * The file is left untouched then, so watching tools are not triggered by it.
+	 */
+	public synchronized void save() {
+		if (!dirty && file.isFile()) {
+			return;
+		}
+		dirty = false;
+		
+		try {
+			StringWriter out = new StringWriter();
+			if (file.getName().toLowerCase().endsWith(".csv")) {
+				saveCSV(out);
+			} else {
+				saveJSON(out);
+			}
+			
+			byte[] data = out.toString().getBytes("UTF-8");
+			if (file.isFile() && file.length() == data.length && Arrays.equals(Files.readAllBytes(file.toPath()), data)) {
+				return;
+			}
+			
+			FileOutputStream fos = new FileOutputStream(file);
+			try {
+				fos.write(data);
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			App.err("Cannot write stats " + file.getPath());
+		}
+	}
+	
+	/**
+	 * Write records as JSON.
+	 * @param out The output writer.
+	 */
+	private void saveJSON(Writer out) throws IOException {
+		out.write("{\n  \"elapsed_ms\": " + ms(System.nanoTime() - start) + ",\n");
+		
+		out.write("  \"phases\": {");
+		for (int i = 0; i < PHASES.length; ++i) {
+			out.write((i > 0 ? "," : "") + "\n    \"" + PHASES[i] + "\": { \"count\": " + counts[i] + ", \"ms\": " + ms(nanos[i].get()) + " }");
+		}
+		out.write("\n  },\n");
+		
+		long[] source = sourceCounters();
+		out.write("  \"caches\": {\n");
+		out.write("    \"source\": { \"hits\": " + source[0] + ", \"misses\": " + source[1] + ", \"evictions\": " + source[2] + " },\n");
+		out.write("    \"fragment\": { \"hits\": " + fragmentHits + ", \"misses\": " + fragmentMisses + " },\n");
+		out.write("    \"disk\": { \"hits\": " + diskHits + ", \"misses\": " + diskMisses + " }\n");
+		out.write("  },\n");
+		
+		out.write("  \"seeds\": [");
+		boolean first = true;
+		for (SeedRecord r : seeds) {
+			out.write((first ? "" : ",") + "\n    { \"path\": " + quote(r.path) + ", \"status\": \"" + r.status + "\", \"files\": " + r.files
+				+ ", \"ms\": " + ms(r.nanos) + ", \"write_ms\": " + ms(r.writeNanos)
+				+ ", \"bytes_in\": " + r.bytesIn + ", \"bytes_out\": " + r.bytesOut + " }");
+			first = false;
+		}
+		out.write("\n  ],\n");
+		
+		out.write("  \"files\": [");
+		first = true;
+		for (Map.Entry<String, FileRecord> e : files.entrySet()) {
+			FileRecord r = e.getValue();
+			synchronized (r) {
+				out.write((first ? "" : ",") + "\n    { \"path\": " + quote(e.getKey()) + ", \"status\": \"" + r.refined + "\", \"reads\": " + r.reads
+					+ ", \"read_ms\": " + ms(r.readNanos) + ", \"extract_ms\": " + ms(r.extractNanos) + ", \"refine_ms\": " + ms(r.refineNanos)
+					+ ", \"bytes_in\": " + r.bytesIn + ", \"chars_out\": " + r.charsOut + " }");
+			}
+			first = false;
+		}
+		out.write("\n  ]\n}\n");
+	}
+	
+	/**
+	 * Write records as CSV, one record per row, leaving columns not applied empty.
+	 * @param out The output writer.
+	 */
+	private void saveCSV(Writer out) throws IOException {
+		out.write(CSV_HEADER + "\n");
+		
+		out.write("run,total,,," + ms(System.nanoTime() - start) + ",,,,,,,,,\n");
+		
+		for (int i = 0; i < PHASES.length; ++i) {
+			out.write("phase," + PHASES[i] + ",," + counts[i] + "," + ms(nanos[i].get()) + ",,,,,,,,,\n");
+		}
+		
+		long[] source = sourceCounters();
+		out.write("cache,source,,,,,,,,,," + source[0] + "," + source[1] + "," + source[2] + "\n");
+		out.write("cache,fragment,,,,,,,,,," + fragmentHits + "," + fragmentMisses + ",\n");
+		out.write("cache,disk,,,,,,,,,," + diskHits + "," + diskMisses + ",\n");
+		
+		for (SeedRecord r : seeds) {
+			out.write("seed," + csv(r.path) + "," + r.status + "," + r.files + "," + ms(r.nanos) + ",,,," + ms(r.writeNanos)
+				+ "," + r.bytesIn + "," + r.bytesOut + ",,,\n");
+		}
+		
+		for (Map.Entry<String, FileRecord> e : files.entrySet()) {
+			FileRecord r = e.getValue();
+			synchronized (r) {
+				out.write("file," + csv(e.getKey()) + "," + r.refined + "," + r.reads + ","
+					+ ms(r.readNanos + r.extractNanos + r.refineNanos) + "," + ms(r.readNanos) + "," + ms(r.extractNanos) + "," + ms(r.refineNanos)
+					+ ",," + r.bytesIn + "," + r.charsOut + ",,,\n");
+			}
+		}
+	}
+	
+	/**
+	 * Get counters of the source cache since the run starts.
+	 * @return Hits, misses and evictions.
+	 */
+	private long[] sourceCounters() {
+		if (sourceCache == null) {
+			return new long[] { 0, 0, 0 };
+		}
+		
+		return new long[] { sourceCache.hits() - sourceHits, sourceCache.misses() - sourceMisses, sourceCache.evictions() - sourceEvictions };
+	}
+	
+	/**
+	 * Get the record of a source file.
+	 * @param path Canonical path of the file.
+	 * @return The record.
+	 */
+	private FileRecord file(String path) {
+		FileRecord r = files.get(path);
+		
+		if (r == null) {
+			files.putIfAbsent(path, new FileRecord());
+			r = files.get(path);
+		}
+		
+		return r;
+	}
+	
+	/**
+	 * Format nanoseconds as milliseconds.
+	 * @param nanos Time in nanoseconds.
+	 * @return Milliseconds with 3 decimals.
+	 */
+	private static String ms(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+	
+	/**
+	 * Quote a string as JSON.
+	 * @param s The string.
+	 * @return The JSON string.
+	 */
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		
+		return sb.append('"').toString();
+	}
+	
+	/**
+	 * Quote a field of CSV if needed.
+	 * @param s The field.
+	 * @return The CSV field.
+	 */
+	private static String csv(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+			return s;
+		}
+		
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+	
+	/**
+	 * Record of a source file.
+	 */
+	private static class FileRecord {
+		// Times read, which is more than once if evicted from the source cache.
+		long reads;
+		
+		// Time spent reading, extracting dependencies and refining, in nanoseconds.
+		long readNanos, extractNanos, refineNanos;
+		
+		// Size of the file.
+		long bytesIn;
+		
+		// Length of the refined fragment.
+		long charsOut;
+		
+		// How the fragment was made, "piped" if never refined.
+		String refined = "piped";
+	}
+	
+	/**
+	 * Record of a seed.
+	 */
+	public static class SeedRecord {
+		// Absolute path of the seed file.
+		String path;
+		
+		// One of "written", "unchanged", "skipped" and "failed".
+		String status;
+		
+		// Start time, and time spent, in nanoseconds.
+		long start, nanos;
+		
+		// Time spent writing the output file, in nanoseconds.
+		long writeNanos;
+		
+		// Canonical path of files combined, or null if not combined.
+		List<String> combined;
+		
+		// Number of files combined.
+		int files;
+		
+		// Size of files combined, and size of output file.
+		long bytesIn, bytesOut;
+		
+		/**
+		 * Wrap an output channel to time writing.
+		 * @param channel The output channel.
+		 * @return The wrapped channel.
+		 */
+		public GatheringByteChannel time(GatheringByteChannel channel) {
+			return new TimedChannel(channel, this);
+		}
+	}
+	
+	/**
+	 * Output channel which adds time spent writing to a seed record.
+	 */
+	private static class TimedChannel implements GatheringByteChannel {
+		// The wrapped channel.
+		private GatheringByteChannel channel;
+		
+		// The seed record.
+		private SeedRecord record;
+		
+		public TimedChannel(GatheringByteChannel channel, SeedRecord record) {
+			this.channel = channel;
+			this.record = record;
+		}
+		
+		public int write(ByteBuffer src) throws IOException {
+			long t = System.nanoTime();
+			try {
+				return channel.write(src);
+			} finally {
+				record.writeNanos += System.nanoTime() - t;
+			}
+		}
+		
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			long t = System.nanoTime();
+			try {
+				return channel.write(srcs, offset, length);
+			} finally {
+				record.writeNanos += System.nanoTime() - t;
+			}
+		}
+		
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+		
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+		
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Class for watching source files and recombining affected seeds only.
+ */
+public class Watcher {
+	// Time to wait for more changes of one save, in milliseconds.
+	private static final long QUIET_PERIOD = 50;
+	
+	// The combiner or compressor instance, whose caches are kept warm.
+	private Combiner combiner;
+	
+	// SeedFinder instance to find new seeds.
+	private SeedFinder finder;
+	
+	// Seed file extension name.
+	private String extname;
+	
+	// Number of seeds processed in parallel.
+	private int threads;
+	
+	// WatchService instance.
+	private WatchService service;
+	
+	// Watched folders by watch key.
+	private HashMap<WatchKey, Path> folders;
+	
+	// Seed files by canonical path.
+	private HashMap<String, File> seeds;
+	
+	// Canonical path of files required by each seed.
+	private HashMap<String, ArrayList<String>> requires;
+	
+	// Canonical path of seeds transitively requiring each file.
+	private HashMap<String, HashSet<String>> requiredBy;
+	
+	// Canonical path of seeds failed to combine last time.
+	private HashSet<String> failed;
+	
+	// Canonical path of files written by YCombo besides output files, such as the manifest.
+	private HashSet<String> written;
+	
+	// Canonical path prefix of shared bundles, which are numbered.
+	private String sharedPrefix;
+	
+	/**
+	 * Create a new Watcher instance.
+	 * @param combiner The combiner or compressor instance.
+	 * @param finder SeedFinder instance which found processed seeds.
+	 * @param extname Seed file extension name.
+	 * @param threads Number of seeds processed in parallel.
+	 */
+	public Watcher(Combiner combiner, SeedFinder finder, String extname, int threads) {
+		this.combiner = combiner;
+		this.finder = finder;
+		this.extname = extname;
+		this.threads = threads;
+		
+		folders = new HashMap<WatchKey, Path>();
+		seeds = new HashMap<String, File>();
+		requires = new HashMap<String, ArrayList<String>>();
+		requiredBy = new HashMap<String, HashSet<String>>();
+		failed = new HashSet<String>();
+		written = new HashSet<String>();
+	}
+	
+	/**
+	 * Watch the root folder and input paths, and recombine seeds affected by each change.
+	 * @param processed Seed files processed already.
+	 * @param input Input paths to find new seeds.
+	 */
+	public void watch(List<File> processed, String[] input) {
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			
+			register(new File(combiner.sourceFile.getRoot()).toPath());
+			for (String path : input) {
+				File f = new File(path);
+				register((f.isDirectory() ? f : f.getAbsoluteFile().getParentFile()).toPath());
+			}
+		} catch (IOException e) {
+			App.exit(e);
+		}
+		
+		File root = new File(combiner.sourceFile.getRoot());
+		written.add(SourceFile.canonize(new File(root, Splitter.CHUNKS_NAME)));
+		sharedPrefix = SourceFile.canonize(root) + File.separator + Splitter.SHARED_NAME + ".";
+		
+		if (combiner.getManifest() != null) {
+			written.add(SourceFile.canonize(combiner.getManifest().getFile()));
+		}
+		
+		if (combiner.getStats() != null) {
+			written.add(SourceFile.canonize(combiner.getStats().getFile()));
+		}
+		
+		for (File seed : processed) {
+			index(seed);
+		}
+		
+		App.info("Watching " + folders.size() + " folders for changes");
+		
+		while (true) {
+			HashSet<String> changed = new HashSet<String>();
+			HashSet<String> added = new HashSet<String>();
+			ArrayList<File> found = new ArrayList<File>();
+			
+			try {
+				// Wait for the first change, then gather changes made together with it.
+				WatchKey key = service.take();
+				do {
+					poll(key, changed, added, found);
+				} while ((key = service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null);
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			rebuild(changed, added, found);
+		}
+	}
+	
+	/**
+	 * Register a folder and its sub folders to WatchService.
+	 * @param folder The folder.
+	 */
+	private void register(Path folder) throws IOException {
+		if (!Files.isDirectory(folder) || folders.containsValue(folder)) {
+			return;
+		}
+		
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+				
+				// Skip meta-data folders such as ".svn".
+				if (name.startsWith(".") && !name.equals(".") && !name.equals("..")) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				
+				folders.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Take changes reported by a watch key.
+	 * @param key The watch key.
+	 * @param changed Set to fill with canonical path of changed files.
+	 * @param added Set to fill with canonical path of created or deleted files.
+	 * @param found List to fill with new seeds.
+	 */
+	private void poll(WatchKey key, Set<String> changed, Set<String> added, List<File> found) {
+		Path folder = folders.get(key);
+		
+		for (WatchEvent<?> event : key.pollEvents()) {
+			// Too many changes to track, so start over.
+			if (event.kind() == OVERFLOW) {
+				changed.addAll(requiredBy.keySet());
+				added.addAll(requiredBy.keySet());
+				continue;
+			}
+			
+			Path path = folder.resolve((Path) event.context());
+			File f = path.toFile();
+			
+			// Skip hidden files, such as output files being written.
+			if (f.getName().startsWith(".")) {
+				continue;
+			}
+			
+			try {
+				if (event.kind() == ENTRY_CREATE && f.isDirectory()) {
+					register(path);
+					found.addAll(finder.find(f));
+				} else if (event.kind() == ENTRY_CREATE && isSeed(f)) {
+					found.addAll(finder.find(f));
+				}
+			} catch (IOException e) {
+				App.err("Cannot watch " + path);
+			}
+			
+			changed.add(SourceFile.canonize(f));
+			
+			if (event.kind() != ENTRY_MODIFY) {
+				added.add(SourceFile.canonize(f));
+			}
+		}
+		
+		if (!key.reset()) {
+			folders.remove(key);
+		}
+	}
+	
+	/**
+	 * Forget changed files and recombine affected seeds.
+	 * @param changed Canonical path of changed files.
+	 * @param added Canonical path of created or deleted files.
+	 * @param found New seeds.
+	 */
+	private void rebuild(Set<String> changed, Set<String> added, List<File> found) {
+		long start = System.currentTimeMillis();
+		LinkedHashMap<String, File> affected = new LinkedHashMap<String, File>();
+		
+		// New seeds are combined even if found by walking a new folder after they were written.
+		for (File seed : found) {
+			String path = SourceFile.canonize(seed);
+			seeds.put(path, seed);
+			changed.add(path);
+		}
+		
+		// Ignore files written by recombining, unless some seed requires them.
+		Iterator<String> outputs = changed.iterator();
+		while (outputs.hasNext()) {
+			String path = outputs.next();
+			if (isWritten(path)) {
+				outputs.remove();
+				added.remove(path);
+			}
+		}
+		
+		if (changed.isEmpty()) {
+			return;
+		}
+		
+		// Seeds failed last time may be fixed by adding a missing file, or removing a file
+		// found in place of another one. Only source files count, so retrying does not
+		// trigger itself by rewriting the stats file or the manifest.
+		if (!added.isEmpty()) {
+			for (String path : failed) {
+				affected.put(path, seeds.get(path));
+			}
+		}
+		
+		for (String path : changed) {
+			combiner.sourceFile.invalidate(path);
+			
+			if (requiredBy.containsKey(path)) {
+				for (String seed : requiredBy.get(path)) {
+					affected.put(seed, seeds.get(seed));
+				}
+			} else if (seeds.containsKey(path)) {
+				affected.put(path, seeds.get(path));
+			}
+		}
+		
+		// Forget removed seeds.
+		Iterator<Map.Entry<String, File>> it = affected.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, File> entry = it.next();
+			
+			if (!entry.getValue().isFile()) {
+				unindex(entry.getKey());
+				seeds.remove(entry.getKey());
+				failed.remove(entry.getKey());
+				it.remove();
+			}
+		}
+		
+		if (affected.isEmpty()) {
+			return;
+		}
+		
+		ArrayList<File> list = new ArrayList<File>(affected.values());
+		App.processSeed(list, combiner, threads);
+		
+		for (File seed : list) {
+			index(seed);
+		}
+		
+		App.info("Recombined " + list.size() + " seeds in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	/**
+	 * Record files required by a seed into the reverse dependencies index.
+	 * @param seed The seed file.
+	 */
+	private void index(File seed) {
+		String path = SourceFile.canonize(seed);
+		
+		unindex(path);
+		seeds.put(path, seed);
+		
+		try {
+			ArrayList<String> closure = combiner.sourceFile.combo(seed);
+			
+			requires.put(path, closure);
+			for (String file : closure) {
+				if (!requiredBy.containsKey(file)) {
+					requiredBy.put(file, new HashSet<String>());
+				}
+				requiredBy.get(file).add(path);
+			}
+			
+			failed.remove(path);
+		} catch (SourceFileException e) {
+			failed.add(path);
+		}
+	}
+	
+	/**
+	 * Remove a seed from the reverse dependencies index.
+	 * @param path Canonical path of the seed file.
+	 */
+	private void unindex(String path) {
+		ArrayList<String> closure = requires.remove(path);
+		
+		if (closure != null) {
+			for (String file : closure) {
+				HashSet<String> s = requiredBy.get(file);
+				s.remove(path);
+				if (s.isEmpty()) {
+					requiredBy.remove(file);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check whether a file is written by YCombo, such as an output file or its gzip file.
+	 * @param path Canonical path of the file.
+	 * @return Whether it is written by YCombo and required by no seed.
+	 */
+	private boolean isWritten(String path) {
+		if (requiredBy.containsKey(path)) {
+			return false;
+		}
+		
+		if (path.endsWith(Gzip.SUFFIX)) {
+			path = path.substring(0, path.length() - Gzip.SUFFIX.length());
+		}
+		
+		return seeds.containsKey(path + "." + extname) || written.contains(path)
+			|| (path.startsWith(sharedPrefix) && path.indexOf(File.separatorChar, sharedPrefix.length()) == -1);
+	}
+	
+	/**
+	 * Check whether a file is a seed file.
+	 * @param f The file.
+	 * @return Whether it is a seed file.
+	 */
+	private boolean isSeed(File f) {
+		String name = f.getName().toLowerCase();
+		return name.endsWith(".js." + extname) || name.endsWith(".css." + extname);
+	}
+}
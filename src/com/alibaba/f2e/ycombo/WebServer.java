@@ -0,0 +1,301 @@
+/**
+ * YCombo
+ * Copyright (c) 2012 Alibaba.com, Inc.
+ * MIT Licensed
+ * @author Nanqiao Deng
+ */
+package com.alibaba.f2e.ycombo;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class for serving combined files on the fly over HTTP, like Unicorn does online.
+ *
+ * "/path/a.js" serves the output of "/path/a.js.seed" if the seed exists,
+ * or else "/path/a.js" combined with its dependencies.
+ * "/path/??a.js,b.js" serves "/path/a.js" and "/path/b.js" combined with their dependencies.
+ */
+public class WebServer {
+	// Number of times a request is combined again while its files keep changing.
+	private static final int MAX_REBUILDS = 3;
+	
+	// The combiner or compressor instance.
+	private Combiner combiner;
+	
+	// Seed file extension name.
+	private String extname;
+	
+	// Text encoding of source files.
+	private String charset;
+	
+	// Combined files by request path.
+	private LruCache<String, Output> cache;
+	
+	/**
+	 * Create a new WebServer instance.
+	 * @param combiner The combiner or compressor instance.
+	 * @param charset Text encoding of source file.
+	 * @param extname Seed file extension name.
+	 * @param capacity Size cap of combined files kept in memory, in bytes.
+	 */
+	public WebServer(Combiner combiner, String charset, String extname, long capacity) {
+		this.combiner = combiner;
+		this.charset = charset;
+		this.extname = extname;
+		
+		cache = new LruCache<String, Output>(capacity);
+	}
+	
+	/**
+	 * Serve requests concurrently until the process is killed.
+	 * @param host Local address to listen, such as "127.0.0.1" or "0.0.0.0" for all interfaces.
+	 * @param port Local port to listen.
+	 * @param threads Number of requests served in parallel.
+	 */
+	public void serve(String host, int port, int threads) {
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(host), port), 0);
+			
+			server.createContext("/", new HttpHandler() {
+				public void handle(HttpExchange exchange) throws IOException {
+					try {
+						WebServer.this.handle(exchange);
+					} finally {
+						exchange.close();
+					}
+				}
+			});
+			server.setExecutor(Executors.newFixedThreadPool(threads));
+			server.start();
+		} catch (IOException e) {
+			App.exit(e);
+		}
+		
+		App.info("Serving http://" + host + ":" + port + "/ from " + combiner.sourceFile.getRoot());
+	}
+	
+	/**
+	 * Serve a request.
+	 * @param exchange The HTTP exchange.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		
+		if (!method.equals("GET") && !method.equals("HEAD")) {
+			respond(exchange, 405, "Method not allowed");
+			return;
+		}
+		
+		String path = exchange.getRequestURI().getPath();
+		String query = exchange.getRequestURI().getRawQuery();
+		String key = query == null ? path : path + "?" + query;
+		Output output = cache.get(key);
+		boolean failed = false;
+		String log = null;
+		
+		App.capture();
+		try {
+			if (output == null || output.isStale(combiner.sourceFile)) {
+				output = build(path, query, MAX_REBUILDS);
+				if (output != null) {
+					cache.put(key, output, output.data.length);
+				}
+			}
+		} catch (SourceFileException e) {
+			App.err(e.getMessage());
+			failed = true;
+		} catch (CombinerException e) {
+			App.err(e.getMessage());
+			failed = true;
+		} catch (App.Exit e) {
+			// App.exit() ends current request only.
+			failed = true;
+		} finally {
+			log = App.release();
+		}
+		
+		if (failed) {
+			respond(exchange, 500, log);
+			return;
+		}
+		
+		// Warnings are printed to the server console.
+		App.replay(log);
+		
+		if (output == null) {
+			respond(exchange, 404, "Not found");
+			return;
+		}
+		
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", (output.type.equals("js") ? "application/javascript" : "text/css") + "; charset=" + charset);
+		headers.set("ETag", output.etag);
+		
+		// Strong ETag matches when the combined bytes are identical.
+		String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (match != null && (match.trim().equals("*") || Arrays.asList(match.split("\\s*,\\s*")).contains(output.etag))) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		
+		if (method.equals("HEAD")) {
+			headers.set("Content-Length", String.valueOf(output.data.length));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		
+		exchange.sendResponseHeaders(200, output.data.length);
+		exchange.getResponseBody().write(output.data);
+	}
+	
+	/**
+	 * Combine files of a request.
+	 * @param path Request path.
+	 * @param query Raw request query.
+	 * @param rebuilds Number of times to combine again if some file changes meanwhile.
+	 * @return The combined output, or null if some file does not exist.
+	 */
+	private Output build(String path, String query, int rebuilds) throws IOException, SourceFileException, CombinerException {
+		String root = combiner.sourceFile.getRoot();
+		Path rootPath = Paths.get(root).normalize();
+		ArrayList<File> seeds = new ArrayList<File>();
+		
+		// "??a.js,b.js" style list, optionally followed by "?t=xxx".
+		if (query != null && query.startsWith("?")) {
+			String list = URLDecoder.decode(query.substring(1).split("\\?")[0], "UTF-8");
+			for (String name : list.split(",")) {
+				seeds.add(new File(new File(root, path), name.trim()));
+			}
+		} else {
+			seeds.add(new File(root, path));
+		}
+		
+		String type = null;
+		ArrayList<String> files = new ArrayList<String>();
+		
+		for (File f : seeds) {
+			String name = f.getName();
+			String t = name.endsWith(".js") ? "js" : (name.endsWith(".css") ? "css" : null);
+			
+			if (t == null || (type != null && !type.equals(t))) {
+				return null;
+			}
+			type = t;
+			
+			// Serve the output of seed if exists.
+			File seed = new File(f.getPath() + "." + extname);
+			if (seed.isFile()) {
+				f = seed;
+			}
+			
+			// Do not serve files outside root folder.
+			if (!f.isFile() || !f.getCanonicalFile().toPath().normalize().startsWith(rootPath)) {
+				return null;
+			}
+			
+			// A file required by a previous one appears only once.
+			for (String file : combiner.sourceFile.combo(f)) {
+				if (!files.contains(file)) {
+					files.add(file);
+				}
+			}
+		}
+		
+		Output output = new Output();
+		output.type = type;
+		output.data = combiner.combine(files, type).toByteArray();
+		output.etag = etag(output.data);
+		output.files = files.toArray(new String[files.size()]);
+		output.stamps = new String[output.files.length];
+		
+		for (int i = 0; i < output.files.length; ++i) {
+			output.stamps[i] = combiner.sourceFile.readStamp(output.files[i]);
+		}
+		
+		// Files cached before changing are read again, while a file which keeps changing
+		// is served as last read, and revalidated by the next request.
+		if (output.isStale(combiner.sourceFile) && rebuilds > 0) {
+			return build(path, query, rebuilds - 1);
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Send a text response.
+	 * @param exchange The HTTP exchange.
+	 * @param status Response status code.
+	 * @param text Response text.
+	 */
+	private void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] data = text.getBytes("UTF-8");
+		
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, data.length);
+		exchange.getResponseBody().write(data);
+	}
+	
+	/**
+	 * Calculate the strong ETag of combined data.
+	 * @param data The combined data.
+	 * @return The ETag.
+	 */
+	private String etag(byte[] data) {
+		StringBuilder etag = new StringBuilder("\"");
+		
+		try {
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+				etag.append(String.format("%02x", b & 0xFF));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			App.exit(e);
+		}
+		
+		return etag.append('"').toString();
+	}
+	
+	/**
+	 * Combined output of a request.
+	 */
+	private static class Output {
+		// Type of combined files.
+		String type;
+		
+		// Combined data.
+		byte[] data;
+		
+		// Strong ETag of combined data.
+		String etag;
+		
+		// Canonical path of combined files.
+		String[] files;
+		
+		// Modification time and size of combined files when they were read.
+		String[] stamps;
+		
+		/**
+		 * Check whether some combined file changed, and forget the changed ones.
+		 * @param sourceFile The SourceFile instance.
+		 * @return Whether some file changed.
+		 */
+		boolean isStale(SourceFile sourceFile) {
+			boolean stale = false;
+			
+			for (int i = 0; i < files.length; ++i) {
+				if (!SourceFile.stamp(new File(files[i])).equals(stamps[i])) {
+					sourceFile.invalidate(files[i]);
+					stale = true;
+				}
+			}
+			
+			return stale;
+		}
+	}
+}